@@ -0,0 +1,133 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.fabric8.kubernetes.api.model.KubernetesList;
+import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
+import io.fabric8.maven.core.config.ProcessorConfig;
+import io.fabric8.maven.docker.util.AnsiLogger;
+import io.fabric8.maven.enricher.api.EnricherContext;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Synthetic inputs shared by the benchmarks: a stub {@link EnricherContext}, an in-memory Istio mesh configuration and
+ * lists of DeploymentConfigs or Pods.
+ *
+ * @author charles moulliard
+ */
+final class BenchmarkFixtures {
+
+    /**
+     * A mesh configuration shaped like the one of the <code>istio</code> ConfigMap, including the fields the enricher
+     * doesn't read
+     */
+    static final String MESH_CONFIG = "# Uncomment the following line to enable mutual TLS between proxies\n"
+            + "authPolicy: NONE\n"
+            + "ingressClass: istio\n"
+            + "ingressService: istio-ingress\n"
+            + "ingressControllerMode: 'OFF'\n"
+            + "enableTracing: true\n"
+            + "mixerCheckServer: istio-policy.istio-system:15004\n"
+            + "mixerReportServer: istio-telemetry.istio-system:15004\n"
+            + "accessLogFile: \"/dev/stdout\"\n"
+            + "defaultConfig:\n"
+            + "  connectTimeout: 10s\n"
+            + "  configPath: \"/etc/istio/proxy\"\n"
+            + "  binaryPath: \"/usr/local/bin/envoy\"\n"
+            + "  serviceCluster: istio-proxy\n"
+            + "  drainDuration: 45s\n"
+            + "  parentShutdownDuration: 1m0s\n"
+            + "  discoveryRefreshDelay: 1s\n"
+            + "  proxyAdminPort: 15000\n"
+            + "  controlPlaneAuthPolicy: NONE\n"
+            + "  discoveryAddress: istio-pilot.istio-system:15007\n"
+            + "  zipkinAddress: zipkin.istio-system:9411\n"
+            + "  statsdUdpAddress: istio-statsd-prom-bridge.istio-system:9125\n";
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @param config - the enricher configuration, on top of the in-memory mesh configuration
+     */
+    static EnricherContext context(Map<String, String> config) {
+        final Model model = new Model();
+        model.setGroupId("me.snowdrop");
+        model.setArtifactId("benchmark");
+        model.setVersion("1.0");
+        final MavenProject project = new MavenProject(model);
+
+        final TreeMap<String, String> enricherConfig = new TreeMap<>();
+        enricherConfig.put(IstioEnricher.Config.meshConfigSources.name(), "inline");
+        enricherConfig.put(IstioEnricher.Config.meshConfig.name(), MESH_CONFIG);
+        enricherConfig.put(IstioEnricher.Config.meshCache.name(), "false");
+        enricherConfig.putAll(config);
+
+        final Map<String, TreeMap> processorConfig = new TreeMap<>();
+        processorConfig.put("fmp-istio-enricher", enricherConfig);
+        return new EnricherContext.Builder()
+                .project(project)
+                .config(new ProcessorConfig(null, null, processorConfig))
+                .log(new AnsiLogger(new QuietLog(), false, false))
+                .build();
+    }
+
+    static IstioSettings settings() {
+        return IstioSettings.from(IstioEnricher.Config::def, "benchmark");
+    }
+
+    /**
+     * @return - a list of <code>size</code> DeploymentConfigs or Pods, each with one application container and volume
+     */
+    static KubernetesList list(String kind, int size) {
+        final KubernetesListBuilder builder = new KubernetesListBuilder();
+        for (int i = 0; i < size; i++) {
+            final String name = "app-" + i;
+            if ("DeploymentConfig".equals(kind)) {
+                builder.addNewDeploymentConfigItem()
+                        .withNewMetadata().withName(name).endMetadata()
+                        .withNewSpec()
+                            .withReplicas(1)
+                            .withNewTemplate()
+                                .withNewMetadata().addToLabels("app", name).endMetadata()
+                                .withNewSpec()
+                                    .withServiceAccountName(name)
+                                    .addNewContainer().withName("spring-boot").withImage(name + ":latest").endContainer()
+                                    .addNewVolume().withName("data").withNewEmptyDir().endEmptyDir().endVolume()
+                                .endSpec()
+                            .endTemplate()
+                        .endSpec()
+                        .endDeploymentConfigItem();
+            } else if ("Pod".equals(kind)) {
+                builder.addNewPodItem()
+                        .withNewMetadata().withName(name).addToLabels("app", name).endMetadata()
+                        .withNewSpec()
+                            .withServiceAccountName(name)
+                            .addNewContainer().withName("spring-boot").withImage(name + ":latest").endContainer()
+                            .addNewVolume().withName("data").withNewEmptyDir().endEmptyDir().endVolume()
+                        .endSpec()
+                        .endPodItem();
+            } else {
+                throw new IllegalArgumentException("Unknown kind " + kind);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Keeps the enricher info messages out of the benchmark output
+     */
+    private static final class QuietLog extends SystemStreamLog {
+        @Override
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        @Override
+        public void info(CharSequence content) {
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import io.fabric8.kubernetes.api.model.KubernetesList;
+import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * End to end cost of {@link IstioEnricher#addMissingResources(KubernetesListBuilder)} on lists of growing size.
+ * <p>
+ * The mesh configuration is resolved from memory and memoized after the first invocation, so this measures the
+ * enrichment itself. Each invocation gets fresh copies of the input since the enrichment is idempotent. As preparing
+ * an invocation has a fixed cost which would dominate the enrichment of the small lists, an invocation enriches
+ * enough copies of the list to handle about {@value #BATCH_RESOURCES} resources, and the {@link Counters#resources}
+ * counter reports the throughput in resources per second, which compares across sizes.
+ *
+ * @author charles moulliard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IstioEnricherBenchmark {
+
+    @Param({"DeploymentConfig", "Pod"})
+    public String kind;
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int size;
+
+    @Param({"1", "4"})
+    public String parallelism;
+
+    static final int BATCH_RESOURCES = 1000;
+
+    private IstioEnricher enricher;
+    private KubernetesList input;
+    private KubernetesListBuilder[] builders;
+
+    /**
+     * The number of resources enriched, reported by JMH as a throughput
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long resources;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            resources = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createEnricher() {
+        enricher = new IstioEnricher(BenchmarkFixtures.context(
+                Collections.singletonMap(IstioEnricher.Config.parallelism.name(), parallelism)));
+        input = BenchmarkFixtures.list(kind, size);
+        builders = new KubernetesListBuilder[Math.max(1, BATCH_RESOURCES / size)];
+    }
+
+    @Setup(Level.Invocation)
+    public void copyInput() {
+        for (int i = 0; i < builders.length; i++) {
+            builders[i] = new KubernetesListBuilder(input);
+        }
+    }
+
+    @Benchmark
+    public void addMissingResources(Counters counters, Blackhole blackhole) {
+        for (KubernetesListBuilder builder : builders) {
+            enricher.addMissingResources(builder);
+            blackhole.consume(builder);
+        }
+        counters.resources += (long) size * builders.length;
+    }
+}
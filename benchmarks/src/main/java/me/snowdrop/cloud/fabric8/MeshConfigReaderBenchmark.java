@@ -0,0 +1,45 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.concurrent.TimeUnit;
+
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of parsing the Istio mesh configuration, with the streaming reader and with the full binding of strict mode
+ *
+ * @author charles moulliard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshConfigReaderBenchmark {
+
+    @Param({"false", "true"})
+    public boolean strict;
+
+    private MeshConfigReader reader;
+
+    @Setup
+    public void createReader() {
+        reader = new MeshConfigReader(strict, EnricherMetrics.DISABLED);
+    }
+
+    @Benchmark
+    public ProxyConfig readProxyConfig() {
+        return reader.readProxyConfig(BenchmarkFixtures.MESH_CONFIG, "benchmark");
+    }
+}
@@ -0,0 +1,79 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodSpec;
+import io.fabric8.kubernetes.api.model.PodSpecBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the sidecar fragment. Building a {@link SidecarTemplate} covers the proxy container and its environment
+ * variables, the init containers, the DeploymentConfig triggers and the Istio ImageStreams, which are all built once
+ * per execution. {@link SidecarTemplate#inject(PodSpecBuilder)} is the per pod cost.
+ *
+ * @author charles moulliard
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SidecarTemplateBenchmark {
+
+    private IstioSettings settings;
+    private EnumMap<ProxyArgs.Placeholder, String> placeholders;
+    private SidecarTemplate sidecar;
+    private PodSpec podSpec;
+
+    @Setup
+    public void createSidecar() {
+        settings = BenchmarkFixtures.settings();
+        placeholders = new EnumMap<>(ProxyArgs.Placeholder.class);
+        placeholders.put(ProxyArgs.Placeholder.SERVICE_CLUSTER, settings.getServiceCluster());
+        placeholders.put(ProxyArgs.Placeholder.DISCOVERY_ADDRESS, "istio-pilot.istio-system:15007");
+        placeholders.put(ProxyArgs.Placeholder.ZIPKIN_ADDRESS, "zipkin.istio-system:9411");
+        placeholders.put(ProxyArgs.Placeholder.STATSD_UDP_ADDRESS, "istio-statsd-prom-bridge.istio-system:9125");
+        placeholders.put(ProxyArgs.Placeholder.CONTROL_PLANE_AUTH_POLICY, "NONE");
+        settings.getProxyTuning().putTo(placeholders);
+        sidecar = new SidecarTemplate(settings, placeholders);
+        podSpec = ((Pod) BenchmarkFixtures.list("Pod", 1).getItems().get(0)).getSpec();
+    }
+
+    @Benchmark
+    public List<String> renderProxyArgs() {
+        return settings.getProxyArgs().render(placeholders);
+    }
+
+    @Benchmark
+    public SidecarTemplate sidecarTemplate() {
+        return new SidecarTemplate(settings, placeholders);
+    }
+
+    /**
+     * Baseline for {@link #inject()}, which has to start from a fresh copy of the pod spec
+     */
+    @Benchmark
+    public PodSpecBuilder copyPodSpec() {
+        return new PodSpecBuilder(podSpec);
+    }
+
+    @Benchmark
+    public PodSpecBuilder inject() {
+        final PodSpecBuilder builder = new PodSpecBuilder(podSpec);
+        sidecar.inject(builder);
+        return builder;
+    }
+}
@@ -0,0 +1,102 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.function.Function;
+
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+
+/**
+ * Validated limits applied when talking to the Kubernetes API server, so that a slow, flaky or hung API server delays
+ * the build by a bounded amount of time instead of stalling it.
+ *
+ * @author charles moulliard
+ */
+final class ApiSettings {
+
+    private final int connectTimeoutMillis;
+    private final int requestTimeoutMillis;
+    private final int retries;
+    private final long retryBackoffMillis;
+    private final int meshConfigMaxSize;
+
+    private ApiSettings(Function<Config, String> config) {
+        this.connectTimeoutMillis = positive(config, Config.apiConnectTimeout) * 1000;
+        this.requestTimeoutMillis = positive(config, Config.apiRequestTimeout) * 1000;
+        this.retries = positiveOrZero(config, Config.apiRetries);
+        this.retryBackoffMillis = positiveOrZero(config, Config.apiRetryBackoff);
+        this.meshConfigMaxSize = positive(config, Config.meshConfigMaxSize);
+    }
+
+    /**
+     * @param config - returns the configured value of a key, or its default
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    static ApiSettings from(Function<Config, String> config) {
+        return new ApiSettings(config);
+    }
+
+    int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    int getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    /**
+     * @return - the number of times a failed request is retried, on top of the first attempt
+     */
+    int getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return - the delay before the first retry, doubled for each subsequent one
+     */
+    long getRetryBackoffMillis() {
+        return retryBackoffMillis;
+    }
+
+    /**
+     * @return - the longest time a request can take with its retries: each attempt can use its connection and request
+     * timeouts, and the backoff doubles between them
+     */
+    long getBudgetMillis() {
+        long budget = 0;
+        long backoff = retryBackoffMillis;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            budget += connectTimeoutMillis + requestTimeoutMillis;
+            if (attempt < retries) {
+                budget += backoff;
+                backoff *= 2;
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * @return - the maximum number of bytes of the Istio ConfigMap response read from the cluster
+     */
+    int getMeshConfigMaxSize() {
+        return meshConfigMaxSize;
+    }
+
+    private static int positive(Function<Config, String> config, Config key) {
+        final int value = positiveOrZero(config, key);
+        if (value == 0) {
+            throw new IllegalArgumentException("Invalid '" + key.name() + "' parameter: " + config.apply(key));
+        }
+        return value;
+    }
+
+    private static int positiveOrZero(Function<Config, String> config, Config key) {
+        try {
+            final int value = Integer.parseInt(config.apply(key).trim());
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid '" + key.name() + "' parameter: " + config.apply(key));
+    }
+}
@@ -0,0 +1,129 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.fabric8.maven.docker.util.Logger;
+
+/**
+ * A {@link Logger} keeping the messages logged in the background until {@link #replayTo(Logger)} is called, so that
+ * the mesh configuration prefetch of an enricher which ends up not running doesn't log anything.
+ *
+ * @author charles moulliard
+ */
+final class BufferedLogger implements Logger {
+
+    private enum Level {
+        DEBUG, INFO, VERBOSE, WARN, ERROR
+    }
+
+    private final Logger delegate;
+    private final List<Message> messages = new ArrayList<>();
+
+    /**
+     * @param delegate - tells which levels are enabled, nothing is logged to it before {@link #replayTo(Logger)}
+     */
+    BufferedLogger(Logger delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Log the buffered messages to the given logger, in order, and forget them
+     */
+    void replayTo(Logger log) {
+        final List<Message> replayed;
+        synchronized (messages) {
+            replayed = new ArrayList<>(messages);
+            messages.clear();
+        }
+        for (Message message : replayed) {
+            switch (message.level) {
+                case DEBUG:
+                    log.debug(message.format, message.params);
+                    break;
+                case INFO:
+                    log.info(message.format, message.params);
+                    break;
+                case VERBOSE:
+                    log.verbose(message.format, message.params);
+                    break;
+                case WARN:
+                    log.warn(message.format, message.params);
+                    break;
+                default:
+                    log.error(message.format, message.params);
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void debug(String format, Object... params) {
+        add(Level.DEBUG, format, params);
+    }
+
+    @Override
+    public void info(String format, Object... params) {
+        add(Level.INFO, format, params);
+    }
+
+    @Override
+    public void verbose(String format, Object... params) {
+        add(Level.VERBOSE, format, params);
+    }
+
+    @Override
+    public void warn(String format, Object... params) {
+        add(Level.WARN, format, params);
+    }
+
+    @Override
+    public void error(String format, Object... params) {
+        add(Level.ERROR, format, params);
+    }
+
+    @Override
+    public String errorMessage(String message) {
+        return delegate.errorMessage(message);
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return delegate.isDebugEnabled();
+    }
+
+    @Override
+    public boolean isVerboseEnabled() {
+        return delegate.isVerboseEnabled();
+    }
+
+    @Override
+    public void progressStart() {
+    }
+
+    @Override
+    public void progressUpdate(String layerId, String status, String progressMessage) {
+    }
+
+    @Override
+    public void progressFinished() {
+    }
+
+    private void add(Level level, String format, Object... params) {
+        synchronized (messages) {
+            messages.add(new Message(level, format, params));
+        }
+    }
+
+    private static final class Message {
+        private final Level level;
+        private final String format;
+        private final Object[] params;
+
+        Message(Level level, String format, Object[] params) {
+            this.level = level;
+            this.format = format;
+            this.params = params;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import io.fabric8.utils.Strings;
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+
+/**
+ * Reads the mesh configuration from a classpath resource, configured with 'meshConfigResource'
+ *
+ * @author charles moulliard
+ */
+final class ClasspathMeshConfigSource implements MeshConfigSource {
+
+    private final String resource;
+    private final ClassLoader classLoader;
+    private final MeshConfigReader reader;
+
+    ClasspathMeshConfigSource(String resource, ClassLoader classLoader, MeshConfigReader reader) {
+        this.resource = resource;
+        this.classLoader = classLoader;
+        this.reader = reader;
+    }
+
+    @Override
+    public String getName() {
+        return "classpath";
+    }
+
+    @Override
+    public String getKey() {
+        return "classpath:" + (resource != null ? resource : "");
+    }
+
+    @Override
+    public ProxyConfig load() {
+        if (Strings.isNullOrBlank(resource)) {
+            return null;
+        }
+
+        try (InputStream in = classLoader.getResourceAsStream(resource)) {
+            if (in == null) {
+                return null;
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return reader.readProxyConfig(new String(out.toByteArray(), StandardCharsets.UTF_8), "classpath:" + resource);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Couldn't read Istio Mesh configuration from classpath:" + resource, e);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.io.IOException;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.maven.docker.util.Logger;
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+
+/**
+ * Reads the mesh configuration from the Istio ConfigMap of the cluster, going through the on-disk {@link MeshConfigCache}
+ * unless it has been disabled. A fresh cache entry is used as is, an expired one is revalidated against the ConfigMap
+ * <code>resourceVersion</code> and in offline mode the cluster is never contacted.
+ *
+ * @author charles moulliard
+ */
+final class ConfigMapMeshConfigSource implements MeshConfigSource {
+
+    private final String namespace;
+    private final String configMapName;
+    private final MeshConfigCache cache;
+    private final boolean offline;
+    private final MeshConfigReader reader;
+    private final ApiSettings api;
+    private final EnricherMetrics metrics;
+    private final Logger log;
+
+    /**
+     * @param cache - the cache to go through, <code>null</code> to always fetch the ConfigMap
+     */
+    ConfigMapMeshConfigSource(String namespace, String configMapName, MeshConfigCache cache, boolean offline,
+                              MeshConfigReader reader, ApiSettings api, EnricherMetrics metrics, Logger log) {
+        this.namespace = namespace;
+        this.configMapName = configMapName;
+        this.cache = cache;
+        this.offline = offline;
+        this.reader = reader;
+        this.api = api;
+        this.metrics = metrics;
+        this.log = log;
+    }
+
+    @Override
+    public String getName() {
+        return "configmap";
+    }
+
+    @Override
+    public String getKey() {
+        // the offline mode and the cache decide whether a cached configuration is used or not
+        return "configmap:" + namespace + "/" + configMapName + (cache == null ? ":uncached" : offline ? ":offline" : "");
+    }
+
+    @Override
+    public ProxyConfig load() {
+        if (cache == null) {
+            if (offline) {
+                throw new IllegalArgumentException("Offline mode requires the Istio mesh cache, set 'meshCache' to true");
+            }
+            return parse(fetchConfigMap());
+        }
+
+        final String cluster = MeshConfigRegistry.client(namespace, api).getMasterUrl().toString();
+        final MeshConfigCache.Entry cached = cache.read(cluster, namespace, configMapName);
+
+        if (offline) {
+            if (cached == null) {
+                throw new IllegalArgumentException("Offline mode is enabled but no cached Istio Mesh configuration exists for "
+                        + configMapName + " ConfigMap in namespace " + namespace + " on " + cluster);
+            }
+            log.info("Offline mode: using cached Istio Mesh configuration");
+            return cached.getConfig();
+        }
+        if (cached != null && cache.isFresh(cached)) {
+            log.debug("Using cached Istio Mesh configuration");
+            return cached.getConfig();
+        }
+
+        final ConfigMap map = fetchConfigMap();
+        final String resourceVersion = map.getMetadata() != null ? map.getMetadata().getResourceVersion() : null;
+        final ProxyConfig config;
+        if (cached != null && resourceVersion != null && resourceVersion.equals(cached.getResourceVersion())) {
+            log.debug("Istio ConfigMap unchanged since resourceVersion " + resourceVersion + ", reusing cached Mesh configuration");
+            config = cached.getConfig();
+        } else {
+            config = parse(map);
+        }
+
+        try {
+            cache.write(cluster, namespace, configMapName, resourceVersion, config);
+        } catch (IOException e) {
+            log.warn("Couldn't cache Istio Mesh configuration: " + e.getMessage());
+        }
+        return config;
+    }
+
+    private ConfigMap fetchConfigMap() {
+        EnricherMetrics.Phase phase = metrics.start("client");
+        final KubernetesClient client = MeshConfigRegistry.client(namespace, api);
+        phase.close();
+
+        final ConfigMap map = getWithRetries(client);
+
+        if (map == null) {
+            throw new IllegalArgumentException("Couldn't find an ConfigMap named "
+                    + configMapName + " in namespace " + namespace + ". Are you sure Istio was installed correctly?");
+        }
+        return map;
+    }
+
+    /**
+     * Get the ConfigMap, retrying server errors, throttling and I/O failures such as timeouts with an exponential
+     * backoff. Client errors, e.g. a missing permission, and a response larger than 'meshConfigMaxSize' are not retried.
+     */
+    private ConfigMap getWithRetries(KubernetesClient client) {
+        long backoff = api.getRetryBackoffMillis();
+        for (int attempt = 0; ; attempt++) {
+            final EnricherMetrics.Phase phase = metrics.start("configMap.get");
+            try {
+                return client.configMaps().inNamespace(namespace).withName(configMapName).get();
+            } catch (KubernetesClientException e) {
+                if (MeshConfigRegistry.ResponseTooLargeException.causedBy(e)) {
+                    throw new IllegalArgumentException("The " + configMapName + " ConfigMap in namespace " + namespace
+                            + " is larger than the " + api.getMeshConfigMaxSize() + " bytes allowed by 'meshConfigMaxSize'", e);
+                }
+                if (attempt >= api.getRetries() || !isRetryable(e)) {
+                    throw e;
+                }
+                log.warn("Couldn't get " + configMapName + " ConfigMap in namespace " + namespace + " (attempt "
+                        + (attempt + 1) + " of " + (api.getRetries() + 1) + "): " + e.getMessage() + ", retrying in " + backoff + "ms");
+                metrics.count("configMap.retries", 1);
+            } finally {
+                phase.close();
+            }
+
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while getting " + configMapName + " ConfigMap", e);
+            }
+            backoff *= 2;
+        }
+    }
+
+    private static boolean isRetryable(KubernetesClientException e) {
+        // a code of 0 means that no response was received at all
+        return e.getCode() == 0 || e.getCode() == 429 || e.getCode() >= 500;
+    }
+
+    private ProxyConfig parse(ConfigMap map) {
+        final String meshConfigAsString = map.getData() != null ? map.getData().get("mesh") : null;
+        if (meshConfigAsString == null) {
+            throw new IllegalArgumentException("Couldn't find an Istio Mesh configuration in "
+                    + configMapName + " ConfigMap in namespace " + namespace);
+        }
+        return reader.readProxyConfig(meshConfigAsString, configMapName + " ConfigMap in namespace " + namespace);
+    }
+}
@@ -0,0 +1,169 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.fabric8.maven.docker.util.Logger;
+
+/**
+ * Per phase timing and allocation metrics of an {@link IstioEnricher} execution, plus counters of the work done.
+ * <p>
+ * Phases may run on any thread, e.g. the mesh configuration prefetch, and their allocations are those of the thread
+ * they ran on, as reported by the JVM when it supports it. {@link #DISABLED} records nothing: starting a phase returns a
+ * shared no-op instance, so instrumented code costs a virtual call when the metrics are off.
+ *
+ * @author charles moulliard
+ */
+class EnricherMetrics {
+
+    static final EnricherMetrics DISABLED = new EnricherMetrics() {
+        @Override
+        Phase start(String name) {
+            return NO_PHASE;
+        }
+
+        @Override
+        void count(String counter, long delta) {
+        }
+    };
+
+    private static final Phase NO_PHASE = () -> {
+    };
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationTracking();
+
+    private final Map<String, PhaseStats> phases = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+
+    /**
+     * A running phase, closing it records its duration and allocations
+     */
+    interface Phase extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    boolean isEnabled() {
+        return this != DISABLED;
+    }
+
+    /**
+     * Start timing a phase, phases with the same name are aggregated
+     */
+    Phase start(String name) {
+        final long startBytes = allocatedBytes();
+        final long startNanos = System.nanoTime();
+        return () -> {
+            final long nanos = System.nanoTime() - startNanos;
+            final long bytes = startBytes < 0 ? -1 : allocatedBytes() - startBytes;
+            record(name, nanos, bytes);
+        };
+    }
+
+    /**
+     * Add the given delta to a counter, e.g. the number of pods touched
+     */
+    synchronized void count(String counter, long delta) {
+        counters.merge(counter, delta, Long::sum);
+    }
+
+    /**
+     * @return - the value of the given counter, 0 if it was never incremented
+     */
+    synchronized long getCount(String counter) {
+        return counters.getOrDefault(counter, 0L);
+    }
+
+    private synchronized void record(String name, long nanos, long bytes) {
+        phases.computeIfAbsent(name, key -> new PhaseStats()).add(nanos, bytes);
+    }
+
+    /**
+     * Log one line per phase and counter at debug level
+     */
+    synchronized void logSummary(Logger log) {
+        if (!log.isDebugEnabled()) {
+            return;
+        }
+        for (Map.Entry<String, PhaseStats> entry : phases.entrySet()) {
+            final PhaseStats stats = entry.getValue();
+            log.debug(String.format("Istio phase %-24s %4d x %10.3f ms %12s", entry.getKey(), stats.count,
+                    stats.nanos / 1e6, stats.allocatedBytes < 0 ? "" : stats.allocatedBytes + " bytes"));
+        }
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            log.debug(String.format("Istio counter %-22s %d", entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * Write the metrics as JSON, after the given header fields describing the execution
+     */
+    synchronized void writeReport(File file, Map<String, Object> header) throws IOException {
+        final Map<String, Object> report = new LinkedHashMap<>(header);
+        report.put("allocationTracking", THREADS != null);
+        final Map<String, Object> phaseReport = new LinkedHashMap<>();
+        for (Map.Entry<String, PhaseStats> entry : phases.entrySet()) {
+            final PhaseStats stats = entry.getValue();
+            final Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", stats.count);
+            values.put("timeNanos", stats.nanos);
+            if (stats.allocatedBytes >= 0) {
+                values.put("allocatedBytes", stats.allocatedBytes);
+            }
+            phaseReport.put(entry.getKey(), values);
+        }
+        report.put("phases", phaseReport);
+        report.put("counters", new LinkedHashMap<>(counters));
+
+        final Path directory = file.getParentFile().toPath();
+        Files.createDirectories(directory);
+        // write to a temporary file first so that the analytics never pick up a partial report
+        final Path tmp = Files.createTempFile(directory, file.getName(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            MAPPER.writeValue(out, report);
+        }
+        Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long allocatedBytes() {
+        return THREADS != null ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationTracking() {
+        try {
+            final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+                if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                    return sunThreads;
+                }
+            }
+        } catch (LinkageError e) {
+            // not a HotSpot based JVM
+        }
+        return null;
+    }
+
+    private static final class PhaseStats {
+        private long count;
+        private long nanos;
+        private long allocatedBytes;
+
+        void add(long nanos, long bytes) {
+            this.count++;
+            this.nanos += nanos;
+            this.allocatedBytes = bytes < 0 || this.allocatedBytes < 0 ? -1 : this.allocatedBytes + bytes;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import io.fabric8.utils.Strings;
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+
+/**
+ * Reads the mesh configuration from a local YAML file, configured with 'meshConfigFile'. A relative path is resolved
+ * against the base directory, the one of the Maven module when run by the enricher.
+ *
+ * @author charles moulliard
+ */
+final class FileMeshConfigSource implements MeshConfigSource {
+
+    private final File file;
+    private final MeshConfigReader reader;
+
+    /**
+     * @param baseDirectory - the directory relative paths are resolved against, <code>null</code> for the working one
+     */
+    FileMeshConfigSource(File baseDirectory, String path, MeshConfigReader reader) {
+        this.file = Strings.isNullOrBlank(path) ? null : resolve(baseDirectory, path.trim());
+        this.reader = reader;
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public String getKey() {
+        return "file:" + (file != null ? file.getAbsolutePath() : "");
+    }
+
+    @Override
+    public ProxyConfig load() {
+        if (file == null) {
+            return null;
+        }
+
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("Istio Mesh configuration file " + file.getAbsolutePath() + " doesn't exist");
+        }
+        try {
+            return reader.readProxyConfig(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8), file.getPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Couldn't read Istio Mesh configuration file " + file.getAbsolutePath(), e);
+        }
+    }
+
+    private static File resolve(File baseDirectory, String path) {
+        final File file = new File(path);
+        return file.isAbsolute() || baseDirectory == null ? file : new File(baseDirectory, path);
+    }
+}
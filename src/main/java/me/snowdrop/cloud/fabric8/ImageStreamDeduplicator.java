@@ -0,0 +1,192 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import io.fabric8.kubernetes.api.builder.VisitableBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.openshift.api.model.ImageStream;
+import io.fabric8.openshift.api.model.ImageStreamBuilder;
+import io.fabric8.openshift.api.model.ImageStreamSpec;
+import io.fabric8.openshift.api.model.TagReference;
+import io.fabric8.openshift.client.DefaultOpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftClient;
+
+/**
+ * Drops the Istio ImageStreams which don't need to be generated, depending on the 'imageStreamDedup' parameter:
+ * <ul>
+ * <li><code>list</code>: those already in the generated list, e.g. added by a fragment or a previous execution</li>
+ * <li><code>reactor</code>: also those already generated by another module of the same reactor build</li>
+ * <li><code>cluster</code>: also those whose tags all exist in the target namespace, listed with a single API call per
+ * reactor build</li>
+ * </ul>
+ * An ImageStream is only dropped when all its tags are already provided, so a new Istio release or a new coalescing
+ * tag is always generated. Like {@link MeshConfigRegistry}, the state shared between modules is JVM wide and reset
+ * when a new reactor build starts.
+ *
+ * @author charles moulliard
+ */
+final class ImageStreamDeduplicator {
+
+    enum Mode {
+        LIST, REACTOR, CLUSTER;
+
+        static Mode of(String id) {
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(id.trim())) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown 'imageStreamDedup' parameter: " + id
+                    + ", expected one of list, reactor or cluster");
+        }
+    }
+
+    // the name:tag of the ImageStreams generated by the modules of the current build
+    private static final Set<String> GENERATED = ConcurrentHashMap.newKeySet();
+    // the name:tag of the ImageStreams of each namespace, listed once per build
+    private static final ConcurrentMap<String, CompletableFuture<Set<String>>> CLUSTER_TAGS = new ConcurrentHashMap<>();
+    private static volatile String currentBuild;
+
+    private final Mode mode;
+    private final String namespace;
+    private final Supplier<Set<String>> clusterTags;
+
+    /**
+     * @param buildId - identifies the reactor build, the state of other builds (e.g. in a long-lived daemon JVM) is dropped
+     * @param namespace - the target namespace, only used to memoize the cluster tags
+     * @param clusterTags - lists the name:tag of the ImageStreams of the target namespace, only called in
+     * <code>cluster</code> mode
+     */
+    ImageStreamDeduplicator(Mode mode, String buildId, String namespace, Supplier<Set<String>> clusterTags) {
+        if (!buildId.equals(currentBuild)) {
+            synchronized (ImageStreamDeduplicator.class) {
+                if (!buildId.equals(currentBuild)) {
+                    GENERATED.clear();
+                    CLUSTER_TAGS.clear();
+                    currentBuild = buildId;
+                }
+            }
+        }
+        this.mode = mode;
+        this.namespace = namespace;
+        this.clusterTags = clusterTags;
+    }
+
+    /**
+     * @return - the given ImageStreams which are neither in the list being enriched nor provided elsewhere according
+     * to the mode
+     */
+    List<ImageStream> filter(List<ImageStream> imageStreams, KubernetesListBuilder builder) {
+        final Set<String> listed = listTags(builder);
+        final List<ImageStream> result = new ArrayList<>(imageStreams.size());
+        for (ImageStream imageStream : imageStreams) {
+            final Set<String> tags = tags(imageStream.getMetadata().getName(), imageStream.getSpec());
+            if (listed.containsAll(tags)) {
+                continue;
+            }
+            if (mode == Mode.CLUSTER && clusterTags().containsAll(tags)) {
+                continue;
+            }
+            // claim the tags for this module, the ImageStream is dropped if other modules claimed them all
+            if (mode != Mode.LIST) {
+                boolean claimed = false;
+                for (String tag : tags) {
+                    claimed |= GENERATED.add(tag);
+                }
+                if (!claimed) {
+                    continue;
+                }
+            }
+            result.add(imageStream);
+        }
+        return result;
+    }
+
+    /**
+     * @return - the name:tag of the tags of the given ImageStream spec
+     */
+    static Set<String> tags(String name, ImageStreamSpec spec) {
+        final Set<String> tags = new HashSet<>();
+        if (spec != null && spec.getTags() != null) {
+            for (TagReference tag : spec.getTags()) {
+                tags.add(name + ":" + tag.getName());
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * List the ImageStreams of the given namespace, or of the current one if empty, with a short lived client bounded by
+     * the timeouts of the given {@link ApiSettings}
+     *
+     * @return - the name:tag of their tags
+     */
+    static Set<String> listClusterTags(String namespace, ApiSettings api) {
+        final Config config = Config.autoConfigure();
+        if (!namespace.isEmpty()) {
+            config.setNamespace(namespace);
+        }
+        config.setConnectionTimeout(api.getConnectTimeoutMillis());
+        config.setRequestTimeout(api.getRequestTimeoutMillis());
+
+        final Set<String> tags = new HashSet<>();
+        try (OpenShiftClient client = new DefaultOpenShiftClient(config)) {
+            for (ImageStream imageStream : client.imageStreams().list().getItems()) {
+                tags.addAll(tags(imageStream.getMetadata().getName(), imageStream.getSpec()));
+            }
+        }
+        return tags;
+    }
+
+    private Set<String> clusterTags() {
+        final CompletableFuture<Set<String>> created = new CompletableFuture<>();
+        final CompletableFuture<Set<String>> existing = CLUSTER_TAGS.putIfAbsent(namespace, created);
+        if (existing != null) {
+            return join(existing);
+        }
+
+        try {
+            created.complete(clusterTags.get());
+        } catch (RuntimeException e) {
+            CLUSTER_TAGS.remove(namespace, created);
+            created.completeExceptionally(e);
+        }
+        return join(created);
+    }
+
+    private static Set<String> listTags(KubernetesListBuilder builder) {
+        final Set<String> tags = new HashSet<>();
+        for (VisitableBuilder<? extends HasMetadata, ?> item : IstioListEnricher.items(builder)) {
+            if (item instanceof ImageStreamBuilder) {
+                final ImageStreamBuilder imageStream = (ImageStreamBuilder) item;
+                final ObjectMeta metadata = imageStream.buildMetadata();
+                if (metadata != null) {
+                    tags.addAll(tags(metadata.getName(), imageStream.buildSpec()));
+                }
+            }
+        }
+        return tags;
+    }
+
+    private static Set<String> join(CompletableFuture<Set<String>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
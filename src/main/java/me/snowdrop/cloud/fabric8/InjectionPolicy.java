@@ -0,0 +1,203 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+
+/**
+ * Decides which pods get the Istio sidecar, from the kind of the resource owning the pod and the pod labels and
+ * annotations. In order:
+ * <ol>
+ * <li>a <code>sidecar.istio.io/inject</code> pod annotation set to <code>false</code> or <code>true</code> wins</li>
+ * <li>the owning kind must be listed in 'injectKinds', if not empty, and not in 'excludeKinds'</li>
+ * <li>the pod labels must match the 'injectSelector' label selector, if not empty</li>
+ * </ol>
+ * The selector uses the Kubernetes syntax: comma separated <code>key=value</code>, <code>key!=value</code>,
+ * <code>key in (a,b)</code>, <code>key notin (a,b)</code>, <code>key</code> and <code>!key</code> requirements, all of
+ * which must match.
+ *
+ * @author charles moulliard
+ */
+final class InjectionPolicy {
+
+    static final String INJECT_ANNOTATION = "sidecar.istio.io/inject";
+
+    private final Set<String> includedKinds;
+    private final Set<String> excludedKinds;
+    private final List<Requirement> selector;
+
+    private InjectionPolicy(Function<Config, String> config) {
+        this.includedKinds = kinds(config.apply(Config.injectKinds));
+        this.excludedKinds = kinds(config.apply(Config.excludeKinds));
+        this.selector = parseSelector(config.apply(Config.injectSelector));
+    }
+
+    /**
+     * @return - the pods selected by 'injectKinds', 'excludeKinds' and 'injectSelector'
+     * @throws IllegalArgumentException for a malformed label selector
+     */
+    static InjectionPolicy from(Function<Config, String> config) {
+        return new InjectionPolicy(config);
+    }
+
+    /**
+     * @param kind - the kind of the resource owning the pod, e.g. <code>DeploymentConfig</code> or <code>Pod</code>
+     * @param podMetadata - the metadata of the pod or pod template, may be <code>null</code>
+     */
+    boolean isSelected(String kind, ObjectMeta podMetadata) {
+        final Map<String, String> annotations = podMetadata != null ? podMetadata.getAnnotations() : null;
+        final String inject = annotations != null ? annotations.get(INJECT_ANNOTATION) : null;
+        if (inject != null) {
+            if ("false".equalsIgnoreCase(inject.trim())) {
+                return false;
+            }
+            if ("true".equalsIgnoreCase(inject.trim())) {
+                return true;
+            }
+        }
+
+        if (!includedKinds.isEmpty() && !includedKinds.contains(kind) || excludedKinds.contains(kind)) {
+            return false;
+        }
+
+        final Map<String, String> labels = podMetadata != null && podMetadata.getLabels() != null
+                ? podMetadata.getLabels() : Collections.<String, String>emptyMap();
+        for (Requirement requirement : selector) {
+            if (!requirement.matches(labels)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> kinds(String value) {
+        final Set<String> kinds = new HashSet<>();
+        if (value != null) {
+            for (String kind : value.split(",")) {
+                if (!kind.trim().isEmpty()) {
+                    kinds.add(kind.trim());
+                }
+            }
+        }
+        return kinds;
+    }
+
+    private static List<Requirement> parseSelector(String selector) {
+        final List<Requirement> requirements = new ArrayList<>();
+        if (selector == null) {
+            return requirements;
+        }
+
+        // split on the commas which aren't inside a set of values
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= selector.length(); i++) {
+            final char c = i < selector.length() ? selector.charAt(i) : ',';
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                final String requirement = selector.substring(start, i).trim();
+                if (!requirement.isEmpty()) {
+                    requirements.add(Requirement.parse(requirement, selector));
+                }
+                start = i + 1;
+            }
+        }
+        if (depth != 0) {
+            throw invalidSelector(selector);
+        }
+        return requirements;
+    }
+
+    private static IllegalArgumentException invalidSelector(String selector) {
+        return new IllegalArgumentException("Invalid 'injectSelector' parameter: " + selector);
+    }
+
+    private static final class Requirement {
+        private enum Operator {EQUALS, NOT_EQUALS, IN, NOT_IN, EXISTS, DOES_NOT_EXIST}
+
+        private final String key;
+        private final Operator operator;
+        private final Set<String> values;
+
+        private Requirement(String key, Operator operator, Set<String> values) {
+            if (key.isEmpty() || key.contains(" ")) {
+                throw new IllegalArgumentException("Invalid label key '" + key + "' in 'injectSelector' parameter");
+            }
+            this.key = key;
+            this.operator = operator;
+            this.values = values;
+        }
+
+        static Requirement parse(String requirement, String selector) {
+            if (requirement.startsWith("!")) {
+                return new Requirement(requirement.substring(1).trim(), Operator.DOES_NOT_EXIST, Collections.<String>emptySet());
+            }
+
+            int index = requirement.indexOf("!=");
+            if (index > 0) {
+                return new Requirement(requirement.substring(0, index).trim(), Operator.NOT_EQUALS,
+                        Collections.singleton(requirement.substring(index + 2).trim()));
+            }
+            index = requirement.indexOf("==");
+            if (index > 0) {
+                return new Requirement(requirement.substring(0, index).trim(), Operator.EQUALS,
+                        Collections.singleton(requirement.substring(index + 2).trim()));
+            }
+            index = requirement.indexOf('=');
+            if (index > 0) {
+                return new Requirement(requirement.substring(0, index).trim(), Operator.EQUALS,
+                        Collections.singleton(requirement.substring(index + 1).trim()));
+            }
+
+            final int open = requirement.indexOf('(');
+            if (open > 0) {
+                if (!requirement.endsWith(")")) {
+                    throw invalidSelector(selector);
+                }
+                final String[] keyAndOperator = requirement.substring(0, open).trim().split("\\s+");
+                if (keyAndOperator.length != 2) {
+                    throw invalidSelector(selector);
+                }
+                final Set<String> values = new HashSet<>();
+                for (String value : requirement.substring(open + 1, requirement.length() - 1).split(",")) {
+                    values.add(value.trim());
+                }
+                if ("in".equals(keyAndOperator[1])) {
+                    return new Requirement(keyAndOperator[0], Operator.IN, values);
+                }
+                if ("notin".equals(keyAndOperator[1])) {
+                    return new Requirement(keyAndOperator[0], Operator.NOT_IN, values);
+                }
+                throw invalidSelector(selector);
+            }
+
+            return new Requirement(requirement, Operator.EXISTS, Collections.<String>emptySet());
+        }
+
+        boolean matches(Map<String, String> labels) {
+            final String value = labels.get(key);
+            switch (operator) {
+                case EQUALS:
+                case IN:
+                    return value != null && values.contains(value);
+                case NOT_EQUALS:
+                case NOT_IN:
+                    return value == null || !values.contains(value);
+                case EXISTS:
+                    return value != null;
+                default:
+                    return value == null;
+            }
+        }
+    }
+}
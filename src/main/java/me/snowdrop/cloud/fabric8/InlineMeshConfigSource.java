@@ -0,0 +1,38 @@
+package me.snowdrop.cloud.fabric8;
+
+import io.fabric8.utils.Strings;
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+
+/**
+ * Uses the mesh configuration given inline in the enricher configuration with 'meshConfig'
+ *
+ * @author charles moulliard
+ */
+final class InlineMeshConfigSource implements MeshConfigSource {
+
+    private final String meshConfig;
+    private final MeshConfigReader reader;
+
+    InlineMeshConfigSource(String meshConfig, MeshConfigReader reader) {
+        this.meshConfig = meshConfig;
+        this.reader = reader;
+    }
+
+    @Override
+    public String getName() {
+        return "inline";
+    }
+
+    @Override
+    public String getKey() {
+        return "inline:" + (meshConfig != null ? meshConfig : "");
+    }
+
+    @Override
+    public ProxyConfig load() {
+        if (Strings.isNullOrBlank(meshConfig)) {
+            return null;
+        }
+        return reader.readProxyConfig(meshConfig, "inline 'meshConfig' parameter");
+    }
+}
@@ -0,0 +1,295 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.maven.core.util.Configs;
+import io.fabric8.maven.docker.util.AnsiLogger;
+import io.fabric8.maven.docker.util.Logger;
+import io.fabric8.openshift.api.model.ImageStream;
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Standalone entry point injecting the Istio sidecar into already rendered manifests, without starting Maven:
+ * <pre>
+ * java -cp ... me.snowdrop.cloud.fabric8.IstioBatch [--config=file.properties] [--key=value ...] input output
+ * </pre>
+ * The keys are those of the enricher configuration, with the same defaults. The mesh configuration is resolved once,
+ * from the sources configured by 'meshConfigSources', then the manifests are streamed through a
+ * {@link StreamingEnricher}, one resource at a time, so that the memory used doesn't depend on their size:
+ * <ul>
+ * <li>if the input is a directory, every <code>.yml</code>, <code>.yaml</code> and <code>.json</code> file is enriched on
+ * a pool of 'parallelism' threads, one per available processor by default, and written to the same relative path of
+ * the output directory. The Istio ImageStreams, which don't depend on the file, are written once to
+ * <code>istio-imagestreams.yml</code> unless the input has them already</li>
+ * <li>if the input is a file, e.g. an aggregated <code>openshift.yml</code>, it is enriched to the output file, which
+ * may be the same, and the missing Istio ImageStreams are appended to it</li>
+ * </ul>
+ * The service cluster of a resource is the 'name' parameter if set, else its <code>app</code> label, else its name. The
+ * sidecars of the last service clusters are kept and shared by the files.
+ * <p>
+ * A summary line is logged per file, in the order of the input files. The exit code is 0 if every file was enriched,
+ * 1 if some failed and 2 if the command line or the configuration is invalid.
+ *
+ * @author charles moulliard
+ */
+public final class IstioBatch {
+
+    static final String IMAGE_STREAMS_FILE = "istio-imagestreams.yml";
+
+    /**
+     * The number of sidecar templates kept, as every resource may have its own service cluster
+     */
+    private static final int MAX_SIDECARS = 256;
+
+    private final Function<Config, String> config;
+    private final Logger log;
+    private final boolean explicitName;
+    private final int parallelism;
+    private final Map<String, SidecarTemplate> sidecars = new ConcurrentHashMap<>();
+
+    private IstioBatch(Properties properties, Logger log) {
+        this.config = key -> properties.getProperty(key.name(), key.def());
+        this.explicitName = properties.containsKey(Config.name.name());
+        // unlike the enricher, which shares the build with the other plugins, use every processor by default
+        this.parallelism = Configs.asInt(properties.getProperty(Config.parallelism.name(), "0"));
+        this.log = log;
+    }
+
+    public static void main(String[] args) {
+        // no "DOCKER>" prefix, this isn't the docker plugin logging
+        System.exit(run(args, new AnsiLogger(new SystemStreamLog(), false, false, true, "")));
+    }
+
+    /**
+     * @return - the exit code
+     */
+    static int run(String[] args, Logger log) {
+        final Properties properties = new Properties();
+        final List<String> directories = new ArrayList<>();
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--config=")) {
+                    try (InputStream in = Files.newInputStream(Paths.get(arg.substring("--config=".length())))) {
+                        properties.load(in);
+                    }
+                } else if (arg.startsWith("--")) {
+                    final int equals = arg.indexOf('=');
+                    if (equals < 0) {
+                        throw new IllegalArgumentException("Expected --key=value, got " + arg);
+                    }
+                    properties.setProperty(arg.substring(2, equals), arg.substring(equals + 1));
+                } else {
+                    directories.add(arg);
+                }
+            }
+            for (String key : properties.stringPropertyNames()) {
+                try {
+                    Config.valueOf(key);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown parameter: " + key);
+                }
+            }
+            if (directories.size() != 2) {
+                throw new IllegalArgumentException("Expected an input and an output");
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("%s", e.getMessage());
+            log.error("Usage: IstioBatch [--config=file.properties] [--key=value ...] input output");
+            return 2;
+        }
+
+        try {
+            return new IstioBatch(properties, log).enrich(Paths.get(directories.get(0)), Paths.get(directories.get(1)));
+        } catch (IOException | RuntimeException e) {
+            log.error("Istio batch enrichment failed: %s", e.getMessage());
+            return 2;
+        }
+    }
+
+    private int enrich(Path input, Path output) throws IOException {
+        if (!Files.exists(input)) {
+            throw new IllegalArgumentException("No such file or directory: " + input);
+        }
+
+        // validate the configuration and resolve the mesh configuration once for all the files
+        final IstioSettings settings = IstioSettings.from(config, "istio-batch");
+        final ProxyConfig proxyConfig = MeshConfigSourceChain.from(config, null, EnricherMetrics.DISABLED, log).load();
+        settings.checkControlPlaneAuthPolicy(proxyConfig);
+        log.info("Using Istio version: " + settings.getIstioVersion());
+        final String sidecarStatus = settings.getSidecarStatus();
+        final List<ImageStream> imageStreams = SidecarTemplate.istioImageStream(settings);
+        final Set<String> imageStreamTags = ConcurrentHashMap.newKeySet();
+
+        if (!Files.isDirectory(input)) {
+            try {
+                log.info("%s: %s", input.getFileName(), enrichFile(input, output, proxyConfig, sidecarStatus, imageStreamTags, imageStreams));
+                return 0;
+            } catch (IOException | RuntimeException e) {
+                log.error("%s: %s", input.getFileName(), e.getMessage());
+                return 1;
+            }
+        }
+
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(input)) {
+            files = paths.filter(Files::isRegularFile)
+                    .filter(path -> path.toString().matches(".*\\.(yml|yaml|json)"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        final ExecutorService pool = Executors.newFixedThreadPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        int failed = 0;
+        try {
+            final List<Future<String>> results = new ArrayList<>(files.size());
+            for (Path file : files) {
+                final Path relative = input.relativize(file);
+                results.add(pool.submit(() -> enrichFile(file, output.resolve(relative), proxyConfig, sidecarStatus,
+                        imageStreamTags, Collections.<ImageStream>emptyList())));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                final Path relative = input.relativize(files.get(i));
+                try {
+                    log.info("%s: %s", relative, results.get(i).get());
+                } catch (ExecutionException e) {
+                    log.error("%s: %s", relative, e.getCause().getMessage());
+                    failed++;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while enriching " + relative, e);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        final List<ImageStream> missing = missingImageStreams(imageStreams, imageStreamTags);
+        if (!missing.isEmpty()) {
+            write(output.resolve(IMAGE_STREAMS_FILE), writer -> {
+                for (ImageStream imageStream : missing) {
+                    StreamingEnricher.write(imageStream, writer);
+                }
+            });
+        }
+        log.info("Enriched %d files, %d failed", files.size() - failed, failed);
+        return failed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Stream the given file to the target one, which may be the same, through a {@link StreamingEnricher}
+     *
+     * @param imageStreams - the Istio ImageStreams to append to the target file if the source doesn't have them
+     * @return - the summary of the enrichment of the given file
+     */
+    private String enrichFile(Path file, Path target, ProxyConfig proxyConfig, String sidecarStatus,
+                              Set<String> imageStreamTags, List<ImageStream> imageStreams) throws IOException {
+        final long start = System.nanoTime();
+        final String fileName = file.getFileName().toString();
+        final int dot = fileName.lastIndexOf('.');
+        final String fileCluster = dot > 0 ? fileName.substring(0, dot) : fileName;
+        final EnricherMetrics metrics = new EnricherMetrics();
+        final StreamingEnricher enricher = new StreamingEnricher(
+                resource -> sidecar(serviceCluster(resource, fileCluster), proxyConfig), sidecarStatus, metrics,
+                imageStreamTags);
+
+        final int[] resources = new int[1];
+        write(target, writer -> {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                resources[0] = enricher.enrich(reader, writer, file.toString());
+            }
+            for (ImageStream imageStream : missingImageStreams(imageStreams, imageStreamTags)) {
+                StreamingEnricher.write(imageStream, writer);
+                resources[0]++;
+            }
+        });
+
+        return String.format("%d resources, %d pods injected, %d skipped, %d DeploymentConfigs in %d ms", resources[0],
+                metrics.getCount("pods"), metrics.getCount("pods.skipped"), metrics.getCount("deploymentConfigs"),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @return - the 'name' parameter if set, else the <code>app</code> label of the resource, else its name, else the
+     * given default
+     */
+    private String serviceCluster(HasMetadata resource, String defaultCluster) {
+        if (explicitName) {
+            return config.apply(Config.name);
+        }
+        final ObjectMeta metadata = resource.getMetadata();
+        if (metadata == null) {
+            return defaultCluster;
+        }
+        final String app = metadata.getLabels() != null ? metadata.getLabels().get("app") : null;
+        if (app != null && !app.isEmpty()) {
+            return app;
+        }
+        return metadata.getName() != null && !metadata.getName().isEmpty() ? metadata.getName() : defaultCluster;
+    }
+
+    private SidecarTemplate sidecar(String serviceCluster, ProxyConfig proxyConfig) {
+        if (sidecars.size() >= MAX_SIDECARS && !sidecars.containsKey(serviceCluster)) {
+            sidecars.clear();
+        }
+        return sidecars.computeIfAbsent(serviceCluster, name -> SidecarTemplate.from(IstioSettings.from(config, name), proxyConfig));
+    }
+
+    private static List<ImageStream> missingImageStreams(List<ImageStream> imageStreams, Set<String> imageStreamTags) {
+        final List<ImageStream> missing = new ArrayList<>();
+        for (ImageStream imageStream : imageStreams) {
+            if (!imageStreamTags.containsAll(ImageStreamDeduplicator.tags(imageStream.getMetadata().getName(), imageStream.getSpec()))) {
+                missing.add(imageStream);
+            }
+        }
+        return missing;
+    }
+
+    private interface Content {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    /**
+     * Write the given content to a temporary file moved to the target once complete, so that a failure never leaves a
+     * truncated file behind and the target may be the file being read
+     */
+    private static void write(Path target, Content content) throws IOException {
+        final Path absolute = target.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        // not a temp file, so that the output gets the default permissions rather than owner only ones
+        final Path tmp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                content.writeTo(writer);
+            }
+            Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
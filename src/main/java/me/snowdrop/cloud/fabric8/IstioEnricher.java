@@ -1,46 +1,29 @@
 package me.snowdrop.cloud.fabric8;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
-import io.fabric8.kubernetes.api.builder.TypedVisitor;
-import io.fabric8.kubernetes.api.model.CapabilitiesBuilder;
-import io.fabric8.kubernetes.api.model.ConfigMap;
-import io.fabric8.kubernetes.api.model.Container;
-import io.fabric8.kubernetes.api.model.ContainerBuilder;
-import io.fabric8.kubernetes.api.model.EmptyDirVolumeSourceBuilder;
-import io.fabric8.kubernetes.api.model.EnvVar;
-import io.fabric8.kubernetes.api.model.EnvVarSource;
 import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
-import io.fabric8.kubernetes.api.model.ObjectFieldSelector;
-import io.fabric8.kubernetes.api.model.PodSpecBuilder;
-import io.fabric8.kubernetes.api.model.ResourceRequirements;
-import io.fabric8.kubernetes.api.model.SecretVolumeSourceBuilder;
-import io.fabric8.kubernetes.api.model.SecurityContextBuilder;
-import io.fabric8.kubernetes.api.model.Volume;
-import io.fabric8.kubernetes.api.model.VolumeBuilder;
-import io.fabric8.kubernetes.api.model.VolumeMount;
-import io.fabric8.kubernetes.api.model.VolumeMountBuilder;
-import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.maven.core.access.ClusterAccess;
+import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.maven.core.handler.DeploymentHandler;
 import io.fabric8.maven.core.handler.HandlerHub;
 import io.fabric8.maven.core.util.Configs;
 import io.fabric8.maven.core.util.MavenUtil;
+import io.fabric8.maven.docker.util.Logger;
 import io.fabric8.maven.enricher.api.BaseEnricher;
 import io.fabric8.maven.enricher.api.EnricherContext;
-import io.fabric8.openshift.api.model.DeploymentConfigBuilder;
-import io.fabric8.openshift.api.model.DeploymentTriggerPolicy;
-import io.fabric8.openshift.api.model.DeploymentTriggerPolicyBuilder;
 import io.fabric8.openshift.api.model.ImageStream;
-import io.fabric8.openshift.api.model.ImageStreamBuilder;
-import io.fabric8.utils.Strings;
-import me.snowdrop.istio.api.model.v1.mesh.AuthenticationPolicy;
-import me.snowdrop.istio.api.model.v1.mesh.MeshConfig;
 import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+import org.apache.maven.project.ProjectBuildingRequest;
 
 /**
  * This enricher takes care of adding <a href="https://isito.io">Istio</a> related enrichments to the Kubernetes Deployment
@@ -52,13 +35,14 @@ import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
  */
 public class IstioEnricher extends BaseEnricher {
 
-    private static final String ISTIO_ANNOTATION_STATUS = "injected-version-releng@0d29a2c0d15f-VERSION-998e0e00d375688bcb2af042fc81a60ce5264009";
     private final DeploymentHandler deployHandler;
-    private String clusterName;
-    private KubernetesClient kubeClient;
+    private final EnricherMetrics metrics;
+    private CompletableFuture<ProxyConfig> proxyConfigPrefetch;
+    private MeshConfigSourceChain prefetchSources;
+    private BufferedLogger prefetchLog;
 
     // Available configuration keys
-    private enum Config implements Configs.Key {
+    enum Config implements Configs.Key {
         name("name"),
         enableCoreDump("yes"),
         withDebugImage("true"),
@@ -81,7 +65,62 @@ public class IstioEnricher extends BaseEnricher {
         coreDumpImageStreamName("alpine"),
 
         imagePullPolicy("IfNotPresent"),
-        replicaCount("1");
+        replicaCount("1"),
+
+        meshCache("true"),
+        meshCacheDir(System.getProperty("user.home") + File.separator + ".m2" + File.separator + "fmp-istio-enricher"),
+        meshCacheTtl("300"),
+        offline("false"),
+        meshPrefetch("false"),
+        meshTimeout(""),
+        meshConfigSources("file,inline,classpath,configmap"),
+        meshSourceTimeout(""),
+        meshConfigFile(""),
+        meshConfig(""),
+        meshConfigResource("META-INF/fabric8/istio-mesh.yml"),
+        meshStrictParsing("false"),
+
+        parallelism("1"),
+        parallelChunkSize("64"),
+
+        metrics("false"),
+
+        proxyProfile("none"),
+        proxyCpuRequest(""),
+        proxyCpuLimit(""),
+        proxyMemoryRequest(""),
+        proxyMemoryLimit(""),
+
+        includeOutboundIPRanges(""),
+        excludeOutboundIPRanges(""),
+        includeInboundPorts(""),
+        excludeInboundPorts(""),
+
+        injectKinds(""),
+        excludeKinds(""),
+        injectSelector(""),
+
+        triggerPolicy("automatic"),
+        triggerTag("rollout"),
+
+        imageStreamDedup("list"),
+        imageStreamNamespace(""),
+
+        proxyReadinessProbe("false"),
+        holdApplicationUntilProxyStarts("false"),
+        envoyVolumeSizeLimit(""),
+
+        proxyTuning("default"),
+        discoveryRefreshDelay(""),
+        drainDuration(""),
+        parentShutdownDuration(""),
+        connectTimeout(""),
+
+        apiConnectTimeout("10"),
+        apiRequestTimeout("10"),
+        apiRetries("2"),
+        apiRetryBackoff("500"),
+        meshConfigMaxSize("1048576");
 
         public String def() {
             return d;
@@ -98,440 +137,201 @@ public class IstioEnricher extends BaseEnricher {
         super(buildContext, "fmp-istio-enricher");
         HandlerHub handlerHub = new HandlerHub(buildContext.getProject());
         deployHandler = handlerHub.getDeploymentHandler();
-        kubeClient = new ClusterAccess(getConfig(Config.istioNamespace)).createDefaultClient(log);
+        metrics = Configs.asBoolean(getConfig(Config.metrics)) ? new EnricherMetrics() : EnricherMetrics.DISABLED;
+
+        // start resolving the mesh configuration while the other enrichers run. The enricher is created even if the
+        // profile doesn't use it, so what the resolution logs is only shown once its result is waited for
+        if (Configs.asBoolean(getConfig(Config.meshPrefetch))) {
+            try {
+                final BufferedLogger bufferedLog = new BufferedLogger(log);
+                final MeshConfigSourceChain sources = meshConfigSources(bufferedLog);
+                proxyConfigPrefetch = MeshConfigRegistry.resolveAsync(buildId(), sources.getKey(), sources::load);
+                prefetchSources = sources;
+                prefetchLog = bufferedLog;
+            } catch (IllegalArgumentException e) {
+                // invalid configuration, reported if the enricher runs
+            }
+        }
     }
 
     @Override
     public void addMissingResources(KubernetesListBuilder builder) {
-        // first check that we actually know the requested Istio version
-        final String istioVersion = getConfig(Config.istioVersion);
-        final String proxyArgsTemplate = ProxyArgs.findByRelease(istioVersion);
-        if (proxyArgsTemplate == null) {
-            throw new IllegalArgumentException("Unknown Istio release: " + istioVersion);
+        if (metrics == EnricherMetrics.DISABLED) {
+            enrich(builder);
+            return;
         }
-        getLog().info("Using Istio version: " + istioVersion);
-
-        clusterName = getConfig(Config.name, MavenUtil.createDefaultResourceName(getProject()));
 
-        final MeshConfig meshConfig = fetchConfigMap(kubeClient, getConfig(Config.istioNamespace));
-        final ProxyConfig config = meshConfig.getDefaultConfig();
-
-        // check that configured authentication policy matches what's in the configmap
-        final AuthenticationPolicy controlPlaneAuthPolicy = config.getControlPlaneAuthPolicy() == null ? AuthenticationPolicy.NONE : config.getControlPlaneAuthPolicy();
-        final String configuredControlPlaneAuthPolicy = getConfig(Config.controlPlaneAuthPolicy);
+        String result = "failed";
+        final EnricherMetrics.Phase phase = metrics.start("total");
         try {
-            AuthenticationPolicy policy = AuthenticationPolicy.valueOf(configuredControlPlaneAuthPolicy);
-            if (!controlPlaneAuthPolicy.equals(policy)) {
-                final String msg = "Configured AuthenticationPolicy %s via 'controlPlaneAuthPolicy' parameter doesn't match Istio ConfigMap configuration %s";
-                throw new IllegalArgumentException(String.format(msg, policy, controlPlaneAuthPolicy));
-            }
-        } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException("Unknown AuthenticationPolicy for 'controlPlaneAuthPolicy' parameter");
-        }
-
-        // replace placeholders in proxy args template
-        final String proxyArgs = String.format(
-                proxyArgsTemplate,
-                clusterName,
-                config.getDiscoveryAddress(),
-                config.getZipkinAddress(),
-                config.getStatsdUdpAddress(),
-                controlPlaneAuthPolicy.toString()
-        );
-        List<String> sidecarArgs = Arrays.asList(proxyArgs.split(","));
-
-        builder.accept(new TypedVisitor<PodSpecBuilder>() {
-            public void visit(PodSpecBuilder podSpecBuilder) {
-                    String serviceAccountName = getServiceAccountName(podSpecBuilder);
-                    podSpecBuilder
-                            // Add Istio Proxy
-                            .addNewContainer()
-                              .withName(getConfig(Config.proxyName))
-                              .withResources(new ResourceRequirements())
-                              .withTerminationMessagePath("/dev/termination-log")
-                              .withImage(getConfig(Config.proxyImageStreamName))
-                              .withImagePullPolicy(getConfig(Config.imagePullPolicy))
-                              .withArgs(sidecarArgs)
-                              .withEnv(proxyEnvVars())
-                              .withSecurityContext(new SecurityContextBuilder()
-                                    .withRunAsUser(1337l)
-                                    .withPrivileged(true)
-                                    .withReadOnlyRootFilesystem(false)
-                                    .build())
-                              .withVolumeMounts(istioVolumeMounts())
-                            .endContainer()
-                            // Specify Istio volumes
-                            .withVolumes(istioVolumes(serviceAccountName))
-                            // Add Istio Init container and Core Dump if enabled
-                            .withInitContainers(populateInitContainers());
-                }
-        });
-
-        // Add Missing triggers
-        builder.accept(new TypedVisitor<DeploymentConfigBuilder>() {
-            public void visit(DeploymentConfigBuilder deploymentConfigBuilder) {
-                deploymentConfigBuilder
-                   .editOrNewSpec()
-                     // Add Istio Side car annotation
-                     .editOrNewTemplate()
-                       .editOrNewMetadata()
-                         .addToAnnotations("sidecar.istio.io/status", ISTIO_ANNOTATION_STATUS.replace("VERSION", istioVersion))
-                       .endMetadata()
-                     .endTemplate()
-                     // Specify the replica count
-                     .withReplicas(Integer.parseInt(getConfig(Config.replicaCount)))
-                     .withTriggers(populateTriggers(istioVersion))
-                   .endSpec();
-            }
-        });
-        // TODO - Check if it already exists before to add it to the Kubernetes List
-        // Add ImageStreams about Istio Proxy, Istio Init and Core Dump
-        builder.addAllToImageStreamItems(istioImageStream(istioVersion)).build();
-    }
-
-    private List<DeploymentTriggerPolicy> populateTriggers(String istioVersion) {
-        List<DeploymentTriggerPolicy> triggers = new ArrayList<>();
-        DeploymentTriggerPolicyBuilder trigger = new DeploymentTriggerPolicyBuilder();
-
-        // Add Istio Init Image
-        trigger.withType("ImageChange")
-               .withNewImageChangeParams()
-                 .withAutomatic(true)
-                 .withNewFrom()
-                   .withKind("ImageStreamTag")
-                   .withName(getConfig(Config.initImageStreamName) + ":" + istioVersion)
-                 .endFrom()
-                 .withContainerNames(getConfig(Config.initName))
-               .endImageChangeParams()
-               .build();
-        triggers.add(trigger.build());
-
-        // Add Istio Proxy Image
-        trigger.withType("ImageChange")
-               .withNewImageChangeParams()
-                 .withAutomatic(true)
-                 .withNewFrom()
-                   .withKind("ImageStreamTag")
-                   .withName(istioImageName(getConfig(Config.proxyImageStreamName)) + ":" + istioVersion)
-                 .endFrom()
-                 .withContainerNames(getConfig(Config.proxyName))
-               .endImageChangeParams()
-               .build();
-        triggers.add(trigger.build());
-
-        // Add Core Dump image if enableCoreDump
-        if ("true".equalsIgnoreCase(getConfig(Config.enableCoreDump))) {
-            trigger.withType("ImageChange")
-                   .withNewImageChangeParams()
-                     .withAutomatic(true)
-                     .withNewFrom()
-                       .withKind("ImageStreamTag")
-                       .withName(getConfig(Config.coreDumpImageStreamName) + ":" + getConfig(Config.alpineVersion))
-                      .endFrom()
-                    .withContainerNames("enable-core-dump")
-                   .endImageChangeParams()
-                   .build();
-            triggers.add(trigger.build());
+            enrich(builder);
+            result = "enriched";
+        } finally {
+            phase.close();
+            reportMetrics(result);
         }
-
-        // Add Trigger to include the Microservice app
-        trigger.withType("ImageChange")
-               .withNewImageChangeParams()
-                 .withAutomatic(true)
-                 .withNewFrom()
-                    .withKind("ImageStreamTag")
-                    .withName(clusterName + ":latest")
-                  .endFrom()
-                  .withContainerNames("spring-boot")
-               .endImageChangeParams()
-               .build();
-
-        triggers.add(trigger.build());
-
-        return triggers;
     }
 
-    protected List<Container> populateInitContainers() {
-        List<Container> initcontainerList = new ArrayList<>();
+    private void enrich(KubernetesListBuilder builder) {
+        // first check that we actually know the requested Istio version and that the configuration is valid
+        EnricherMetrics.Phase phase = metrics.start("settings");
+        final IstioSettings settings = IstioSettings.from(this::getConfig,
+                getConfig(Config.name, MavenUtil.createDefaultResourceName(getProject())));
+        phase.close();
+        final String istioVersion = settings.getIstioVersion();
+        getLog().info("Using Istio version: " + istioVersion);
 
-        // Add Istio container which setup IPTABLES
-        initcontainerList.add(istioInitContainer());
+        phase = metrics.start("meshConfig.wait");
+        final ProxyConfig config = resolveProxyConfig(getConfig(Config.istioNamespace));
+        phase.close();
 
-        if ("true".equalsIgnoreCase(getConfig(Config.enableCoreDump))) {
-            initcontainerList.add(coreDumpInitContainer());
-        }
-        return initcontainerList;
+        // check that configured authentication policy matches what's in the configmap
+        settings.checkControlPlaneAuthPolicy(config);
+
+        // build the sidecar fragment once, only the certificates volume differs from one pod to the other
+        phase = metrics.start("sidecarTemplate");
+        final SidecarTemplate sidecar = SidecarTemplate.from(settings, config);
+        phase.close();
+
+        // Add the sidecar to every pod spec and the missing triggers to every DeploymentConfig in a single pass
+        final String sidecarStatus = settings.getSidecarStatus();
+        phase = metrics.start("visit");
+        new IstioListEnricher(() -> new IstioVisitor(sidecar, sidecarStatus, metrics),
+                Configs.asInt(getConfig(Config.parallelism)), Configs.asInt(getConfig(Config.parallelChunkSize)))
+                .enrich(builder);
+        phase.close();
+
+        addImageStreams(builder, settings, sidecar.getImageStreams());
     }
 
-    private MeshConfig fetchConfigMap(KubernetesClient kubeClient, String namespace) {
-
-        final String configMapName = getConfig(Config.istioConfigMapName);
-        ConfigMap map = kubeClient.configMaps().withName(configMapName).get();
-
-        if (map == null) {
-            throw new IllegalArgumentException("Couldn't find an ConfigMap named "
-                    + configMapName + " in namespace " + namespace + ". Are you sure Istio was installed correctly?");
-        }
-
-        final YAMLMapper mapper = new YAMLMapper();
-        final String meshConfigAsString = map.getData().get("mesh");
-        if (meshConfigAsString != null) {
-            try {
-                final MeshConfig meshConfig = mapper.readValue(meshConfigAsString, MeshConfig.class);
-
-                return meshConfig;
-            } catch (IOException e) {
-                throw new IllegalArgumentException("Couldn't parse Istio Mesh configuration", e);
-            }
-        } else {
-            throw new IllegalArgumentException("Couldn't find an Istio Mesh configuration in "
-                    + configMapName + " ConfigMap in namespace " + namespace);
-        }
+    /**
+     * Add the ImageStreams about Istio Proxy, Istio Init and Core Dump which aren't provided already, see
+     * {@link ImageStreamDeduplicator}
+     */
+    private void addImageStreams(KubernetesListBuilder builder, IstioSettings settings, List<ImageStream> imageStreams) {
+        final EnricherMetrics.Phase phase = metrics.start("imageStreams");
+        final String namespace = getConfig(Config.imageStreamNamespace).trim();
+        final List<ImageStream> missing = new ImageStreamDeduplicator(settings.getImageStreamDedup(), buildId(), namespace,
+                () -> listClusterTags(namespace))
+                .filter(imageStreams, builder);
+        builder.addAllToImageStreamItems(missing);
+        metrics.count("imageStreams.skipped", imageStreams.size() - missing.size());
+        phase.close();
     }
 
-
-    /*
-     *
-       kind: ImageStream
-       metadata:
-         generation: 1
-         name: proxy_debug
-         namespace: demo
-       spec:
-         tags:
-         - from:
-             kind: DockerImage
-             name: docker.io/istio/proxy_debug:0.2.12
-           generation: 1
-           name: latest
-           referencePolicy:
-             type: Source
+    /**
+     * @return - the name:tag of the ImageStreams of the target namespace, empty if they can't be listed
      */
-    private List<ImageStream> istioImageStream(String istioVersion) {
-        List<ImageStream> imageStreams = new ArrayList<>();
-        ImageStreamBuilder imageStreamBuilder = new ImageStreamBuilder();
-        imageStreamBuilder
-                .withNewMetadata()
-                  .withName(getConfig(Config.initImageStreamName))
-                .endMetadata()
-
-                .withNewSpec()
-                  .addNewTag()
-                  .withNewFrom()
-                    .withKind("DockerImage")
-                    .withName(getConfig(Config.initDockerImageName) + ":" + istioVersion)
-                  .endFrom()
-                  .withName(istioVersion)
-                  .endTag()
-                .endSpec()
-                .build();
-        imageStreams.add(imageStreamBuilder.build());
-
-        if ("true".equalsIgnoreCase(getConfig(Config.enableCoreDump))) {
-            imageStreamBuilder = new ImageStreamBuilder();
-            imageStreamBuilder
-                 .withNewMetadata()
-                   .withName(getConfig(Config.coreDumpImageStreamName))
-                 .endMetadata()
-
-                 .withNewSpec()
-                   .addNewTag()
-                   .withNewFrom()
-                     .withKind("DockerImage")
-                     .withName(getConfig(Config.coreDumpDockerImageName) + ":" + getConfig(Config.alpineVersion))
-                   .endFrom()
-                   .withName(getConfig(Config.alpineVersion))
-                   .endTag()
-                 .endSpec()
-                 .build();
-            imageStreams.add(imageStreamBuilder.build());
+    private Set<String> listClusterTags(String namespace) {
+        if (Configs.asBoolean(getConfig(Config.offline))) {
+            getLog().info("Offline mode: not checking the Istio ImageStreams of the cluster");
+            return Collections.emptySet();
         }
-
-        imageStreamBuilder = new ImageStreamBuilder();
-        imageStreamBuilder
-                .withNewMetadata()
-                  .withName(istioImageName(getConfig(Config.proxyImageStreamName)))
-                .endMetadata()
-
-                .withNewSpec()
-                  .addNewTag()
-                  .withNewFrom()
-                    .withKind("DockerImage")
-                    .withName(istioImageName(getConfig(Config.proxyDockerImageName)) + ":" + istioVersion)
-                  .endFrom()
-                  .withName(istioVersion)
-                  .endTag()
-                .endSpec()
-                .build();
-        imageStreams.add(imageStreamBuilder.build());
-
-        return imageStreams;
-    }
-
-    private String getServiceAccountName(PodSpecBuilder podSpecBuilder) {
-        if (Strings.isNotBlank(podSpecBuilder.getServiceAccountName())) {
-            return podSpecBuilder.getServiceAccountName();
-        } else if (Strings.isNotBlank(podSpecBuilder.getServiceAccount())) {
-            return podSpecBuilder.getServiceAccount();
+        final EnricherMetrics.Phase phase = metrics.start("imageStreams.list");
+        try {
+            return ImageStreamDeduplicator.listClusterTags(namespace, ApiSettings.from(this::getConfig));
+        } catch (KubernetesClientException e) {
+            getLog().warn("Couldn't list the ImageStreams of the cluster, adding all the Istio ones: " + e.getMessage());
+            return Collections.emptySet();
+        } finally {
+            phase.close();
         }
-
-        return "default";
-    }
-
-    protected String istioImageName(String dockerImage) {
-        StringBuilder name = new StringBuilder(dockerImage);
-        name = "true".equalsIgnoreCase(getConfig(Config.withDebugImage)) ? name.append("_debug") : name;
-        return name.toString();
     }
 
-    protected Container istioInitContainer() {
-        /*
-          .put("name", "istio-init")
-          .put("image", getConfig(Config.initImageStreamName))
-          .put("imagePullPolicy", "IfNotPresent")
-          .put("resources", new JsonObject())
-          .put("terminationMessagePath", "/dev/termination-log")
-          .put("terminationMessagePolicy", "File")
-          .put("args", new JsonArray()
-              .add("-p")
-              .add("15001")
-              .add("-u")
-              .add("1337"))
-          .put("securityContext",
-              new JsonObject()
-                  .put("capabilities",
-                      new JsonObject()
-                          .put("add", new JsonArray().add("NET_ADMIN")))
-                  .put("privileged",true));
-         */
-
-        return new ContainerBuilder()
-                .withName(getConfig(Config.initName))
-                .withImage(getConfig(Config.initImageStreamName))
-                .withImagePullPolicy("IfNotPresent")
-                .withTerminationMessagePath("/dev/termination-log")
-                .withTerminationMessagePolicy("File")
-                .withArgs("-p", "15001", "-u", "1337")
-                .withSecurityContext(new SecurityContextBuilder()
-                        .withPrivileged(true)
-                        .withCapabilities(new CapabilitiesBuilder()
-                                .addToAdd("NET_ADMIN")
-                                .build())
-                        .build())
-                .build();
+    /**
+     * Log the metrics summary at debug level and write the JSON report of this execution
+     */
+    private void reportMetrics(String result) {
+        metrics.logSummary(log);
+
+        final Map<String, Object> header = new LinkedHashMap<>();
+        header.put("groupId", getProject().getGroupId());
+        header.put("artifactId", getProject().getArtifactId());
+        header.put("version", getProject().getVersion());
+        header.put("buildId", buildId());
+        header.put("timestamp", System.currentTimeMillis());
+        header.put("istioVersion", getConfig(Config.istioVersion));
+        header.put("parallelism", getConfig(Config.parallelism));
+        header.put("result", result);
+        try {
+            metrics.writeReport(new File(outputDirectory(), "istio-metrics.json"), header);
+        } catch (IOException e) {
+            getLog().warn("Couldn't write the Istio enricher metrics: " + e.getMessage());
+        }
     }
 
-    protected Container coreDumpInitContainer() {
-        /* Enable Core Dump
-         *  args:
-         *   - '-c'
-         *   - >-
-         *     sysctl -w kernel.core_pattern=/etc/istio/proxy/core.%e.%p.%t &&
-         *     ulimit -c unlimited
-         * command:
-         *   - /bin/sh
-         * image: alpine
-         * imagePullPolicy: IfNotPresent
-         * name: enable-core-dump
-         * resources: {}
-         * securityContext:
-         *   privileged: true
-         * terminationMessagePath: /dev/termination-log
-         * terminationMessagePolicy: File
-         */
-        return new ContainerBuilder()
-                .withName(getConfig(Config.coreDumpName))
-                .withImage(getConfig(Config.coreDumpImageStreamName))
-                .withImagePullPolicy("IfNotPresent")
-                .withCommand("/bin/sh")
-                .withArgs("-c", "sysctl -w kernel.core_pattern=/etc/istio/proxy/core.%e.%p.%t && ulimit -c unlimited")
-                .withTerminationMessagePath("/dev/termination-log")
-                .withTerminationMessagePolicy("File")
-                .withSecurityContext(new SecurityContextBuilder()
-                        .withPrivileged(true)
-                        .build())
-                .build();
+    private File outputDirectory() {
+        return new File(getProject().getBuild().getDirectory(), "fmp-istio-enricher");
     }
 
     /**
-     * Generate the volumes to be mounted
-     *
-     * @return - list of {@link VolumeMount}
+     * Resolve the Istio {@link ProxyConfig} once per reactor build, see {@link MeshConfigRegistry}, waiting at most
+     * 'meshTimeout' seconds for it, by default as long as all its sources can take. The resolution started by the
+     * constructor is joined if prefetching is enabled, and what it logged so far is logged then.
      */
-    protected List<VolumeMount> istioVolumeMounts() {
-        List<VolumeMount> volumeMounts = new ArrayList<>();
-
-        VolumeMountBuilder istioProxyVolume = new VolumeMountBuilder();
-        istioProxyVolume
-                .withMountPath("/etc/istio/proxy")
-                .withName("istio-envoy")
-                .build();
-
-        VolumeMountBuilder istioCertsVolume = new VolumeMountBuilder();
-        istioCertsVolume
-                .withMountPath("/etc/certs")
-                .withName("istio-certs")
-                .withReadOnly(true)
-                .build();
-
-        volumeMounts.add(istioProxyVolume.build());
-        volumeMounts.add(istioCertsVolume.build());
-        return volumeMounts;
+    private ProxyConfig resolveProxyConfig(String namespace) {
+        final String configMapName = getConfig(Config.istioConfigMapName);
+        CompletableFuture<ProxyConfig> future = proxyConfigPrefetch;
+        MeshConfigSourceChain sources = prefetchSources;
+        if (future == null) {
+            sources = meshConfigSources(log);
+            future = MeshConfigRegistry.resolveAsync(buildId(), sources.getKey(), sources::load);
+        }
+
+        final long timeout = meshTimeout(sources);
+        try {
+            return future.get(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Timed out after " + timeout + "s waiting for the Istio Mesh configuration from "
+                    + configMapName + " ConfigMap in namespace " + namespace
+                    + ". Increase 'meshTimeout' or use the 'offline' mode with a cached configuration");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Couldn't resolve Istio Mesh configuration", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the Istio Mesh configuration", e);
+        } finally {
+            if (prefetchLog != null) {
+                prefetchLog.replayTo(getLog());
+            }
+        }
     }
 
-    /**
-     * Generate the volumes
-     *
-     * @return - list of {@link Volume}
-     */
-    protected List<Volume> istioVolumes(String serviceAccountName) {
-        List<Volume> volumes = new ArrayList<>();
-
-        VolumeBuilder empTyVolume = new VolumeBuilder();
-        empTyVolume.withEmptyDir(new EmptyDirVolumeSourceBuilder()
-                .withMedium("Memory")
-                .build())
-                .withName("istio-envoy")
-                .build();
-
-        VolumeBuilder secretVolume = new VolumeBuilder();
-        secretVolume
-                .withName("istio-certs")
-                .withSecret(new SecretVolumeSourceBuilder()
-                        .withSecretName("istio." + serviceAccountName)
-                        .withDefaultMode(420)
-                        .build())
-                .build();
-
-        volumes.add(empTyVolume.build());
-        volumes.add(secretVolume.build());
-        return volumes;
+    private long meshTimeout(MeshConfigSourceChain sources) {
+        final String value = getConfig(Config.meshTimeout).trim();
+        if (value.isEmpty()) {
+            return sources.getTimeoutSeconds();
+        }
+        try {
+            final long timeout = Long.parseLong(value);
+            if (timeout > 0) {
+                return timeout;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid 'meshTimeout' parameter: " + value);
     }
 
     /**
-     * The method to return list of environment variables that will be needed for Istio proxy
-     *
-     * @return - list of {@link EnvVar}
+     * @return - the mesh configuration sources of this module, a relative 'meshConfigFile' being resolved against its
+     * base directory
      */
-    protected List<EnvVar> proxyEnvVars() {
-        List<EnvVar> envVars = new ArrayList<>();
-
-        //POD_NAME
-        EnvVarSource podNameVarSource = new EnvVarSource();
-        podNameVarSource.setFieldRef(new ObjectFieldSelector(null, "metadata.name"));
-        envVars.add(new EnvVar("POD_NAME", null, podNameVarSource));
-
-        //POD_NAMESPACE
-        EnvVarSource podNamespaceVarSource = new EnvVarSource();
-        podNamespaceVarSource.setFieldRef(new ObjectFieldSelector(null, "metadata.namespace"));
-        envVars.add(new EnvVar("POD_NAMESPACE", null, podNamespaceVarSource));
-
-        //POD_IP
-        EnvVarSource podIpVarSource = new EnvVarSource();
-        podIpVarSource.setFieldRef(new ObjectFieldSelector(null, "status.podIP"));
-        envVars.add(new EnvVar("INSTANCE_IP", null, podIpVarSource));
-
-        return envVars;
+    private MeshConfigSourceChain meshConfigSources(Logger log) {
+        return MeshConfigSourceChain.from(this::getConfig, getProject().getBasedir(), metrics, log);
     }
 
+    // the enricher context doesn't expose the MavenSession, the project building request is the only place left
+    // carrying the build start time
+    @SuppressWarnings("deprecation")
+    private String buildId() {
+        final ProjectBuildingRequest request = getProject().getProjectBuildingRequest();
+        if (request != null && request.getBuildStartTime() != null) {
+            return Long.toString(request.getBuildStartTime().getTime());
+        }
+        return "default";
+    }
 }
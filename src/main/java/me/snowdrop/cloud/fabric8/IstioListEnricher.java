@@ -0,0 +1,103 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+import io.fabric8.kubernetes.api.builder.VisitableBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
+
+/**
+ * Runs the {@link IstioVisitor} over a <code>KubernetesListBuilder</code>, either on the calling thread or, when a
+ * parallelism greater than one is configured, on a bounded {@link ForkJoinPool}.
+ * <p>
+ * In parallel mode the list items are split into chunks of at most 'parallelChunkSize' items, each chunk being enriched
+ * independently with its own visitor. Every item only depends on the shared, immutable {@link SidecarTemplate} and its
+ * builder is updated in place, so the items are neither copied nor reordered. A list which fits in a single chunk is
+ * enriched on the calling thread.
+ *
+ * @author charles moulliard
+ */
+final class IstioListEnricher {
+
+    private final Supplier<IstioVisitor> visitors;
+    private final int parallelism;
+    private final int chunkSize;
+
+    /**
+     * @param visitors - creates a new visitor for each chunk, visitors are stateful and mustn't be shared between threads
+     * @param parallelism - the number of worker threads, 1 to enrich on the calling thread, 0 for one per available processor
+     */
+    IstioListEnricher(Supplier<IstioVisitor> visitors, int parallelism, int chunkSize) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Invalid 'parallelism' parameter: " + parallelism);
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid 'parallelChunkSize' parameter: " + chunkSize);
+        }
+        this.visitors = visitors;
+        this.parallelism = parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+        this.chunkSize = chunkSize;
+    }
+
+    void enrich(KubernetesListBuilder builder) {
+        final List<VisitableBuilder<? extends HasMetadata, ?>> items = items(builder);
+        if (parallelism == 1 || items.size() <= chunkSize) {
+            visitItems(items);
+            return;
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Chunk(items));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return - the builders of the items of the given list, in order, which are updated in place when visited
+     */
+    static List<VisitableBuilder<? extends HasMetadata, ?>> items(KubernetesListBuilder builder) {
+        final List<VisitableBuilder<? extends HasMetadata, ?>> items = new ArrayList<>();
+        // the predicate is given every item builder in turn, and never matches so that none is built
+        builder.buildMatchingItem(item -> {
+            items.add(item);
+            return false;
+        });
+        return items;
+    }
+
+    /**
+     * Visit the items one by one, so that the visitor knows the kind of the resource owning the pods it visits
+     */
+    private void visitItems(List<VisitableBuilder<? extends HasMetadata, ?>> items) {
+        final IstioVisitor visitor = visitors.get();
+        for (VisitableBuilder<? extends HasMetadata, ?> item : items) {
+            visitor.visitItem(item);
+        }
+    }
+
+    // fork/join tasks are Serializable but never serialized
+    @SuppressWarnings("serial")
+    private final class Chunk extends RecursiveAction {
+        private final List<VisitableBuilder<? extends HasMetadata, ?>> items;
+
+        private Chunk(List<VisitableBuilder<? extends HasMetadata, ?>> items) {
+            this.items = items;
+        }
+
+        @Override
+        protected void compute() {
+            if (items.size() > chunkSize) {
+                final int middle = items.size() >>> 1;
+                invokeAll(new Chunk(items.subList(0, middle)), new Chunk(items.subList(middle, items.size())));
+                return;
+            }
+            visitItems(items);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.function.Function;
+
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+import me.snowdrop.istio.api.model.v1.mesh.AuthenticationPolicy;
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+
+/**
+ * Validated, immutable snapshot of the enricher configuration used to inject the Istio sidecar. It is taken once per
+ * execution so that the injection itself never goes back to the raw configuration.
+ *
+ * @author charles moulliard
+ */
+final class IstioSettings {
+
+    private static final String SIDECAR_STATUS = "injected-version-releng@0d29a2c0d15f-VERSION-998e0e00d375688bcb2af042fc81a60ce5264009";
+
+    private final String istioVersion;
+    private final ProxyArgs proxyArgs;
+    private final String serviceCluster;
+    private final AuthenticationPolicy controlPlaneAuthPolicy;
+    private final boolean coreDump;
+    private final boolean debugImage;
+    private final String alpineVersion;
+    private final String imagePullPolicy;
+    private final int replicaCount;
+    private final SidecarSizing sidecarSizing;
+    private final ProxyTuning proxyTuning;
+    private final SidecarStartup sidecarStartup;
+    private final TrafficInterception trafficInterception;
+    private final InjectionPolicy injectionPolicy;
+    private final TriggerPolicy triggerPolicy;
+    private final ImageStreamDeduplicator.Mode imageStreamDedup;
+
+    private final String proxyName;
+    private final String proxyDockerImageName;
+    private final String proxyImageStreamName;
+
+    private final String initName;
+    private final String initDockerImageName;
+    private final String initImageStreamName;
+
+    private final String coreDumpName;
+    private final String coreDumpDockerImageName;
+    private final String coreDumpImageStreamName;
+
+    private IstioSettings(Function<Config, String> config, String serviceCluster) {
+        this.istioVersion = config.apply(Config.istioVersion);
+        this.proxyArgs = ProxyArgs.forRelease(istioVersion);
+        if (proxyArgs == null) {
+            throw new IllegalArgumentException("Unknown Istio release: " + istioVersion);
+        }
+        this.serviceCluster = serviceCluster;
+
+        try {
+            this.controlPlaneAuthPolicy = AuthenticationPolicy.valueOf(config.apply(Config.controlPlaneAuthPolicy));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown AuthenticationPolicy for 'controlPlaneAuthPolicy' parameter");
+        }
+        try {
+            this.replicaCount = Integer.parseInt(config.apply(Config.replicaCount));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid 'replicaCount' parameter: " + config.apply(Config.replicaCount));
+        }
+
+        this.sidecarSizing = SidecarSizing.from(config);
+        this.proxyTuning = ProxyTuning.from(config, proxyArgs);
+        this.sidecarStartup = SidecarStartup.from(config, proxyArgs);
+        this.trafficInterception = TrafficInterception.from(config);
+        this.injectionPolicy = InjectionPolicy.from(config);
+        this.triggerPolicy = TriggerPolicy.from(config);
+        this.imageStreamDedup = ImageStreamDeduplicator.Mode.of(config.apply(Config.imageStreamDedup));
+
+        this.coreDump = "true".equalsIgnoreCase(config.apply(Config.enableCoreDump));
+        this.debugImage = "true".equalsIgnoreCase(config.apply(Config.withDebugImage));
+        this.alpineVersion = config.apply(Config.alpineVersion);
+        this.imagePullPolicy = config.apply(Config.imagePullPolicy);
+
+        this.proxyName = config.apply(Config.proxyName);
+        this.proxyDockerImageName = config.apply(Config.proxyDockerImageName);
+        this.proxyImageStreamName = config.apply(Config.proxyImageStreamName);
+
+        this.initName = config.apply(Config.initName);
+        this.initDockerImageName = config.apply(Config.initDockerImageName);
+        this.initImageStreamName = config.apply(Config.initImageStreamName);
+
+        this.coreDumpName = config.apply(Config.coreDumpName);
+        this.coreDumpDockerImageName = config.apply(Config.coreDumpDockerImageName);
+        this.coreDumpImageStreamName = config.apply(Config.coreDumpImageStreamName);
+    }
+
+    /**
+     * @param config - returns the configured value of a key, or its default
+     * @param serviceCluster - the name of the application, used as Istio service cluster
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    static IstioSettings from(Function<Config, String> config, String serviceCluster) {
+        return new IstioSettings(config, serviceCluster);
+    }
+
+    String getIstioVersion() {
+        return istioVersion;
+    }
+
+    /**
+     * @return - the value of the <code>sidecar.istio.io/status</code> annotation of the injected pods
+     */
+    String getSidecarStatus() {
+        return SIDECAR_STATUS.replace("VERSION", istioVersion);
+    }
+
+    ProxyArgs getProxyArgs() {
+        return proxyArgs;
+    }
+
+    String getServiceCluster() {
+        return serviceCluster;
+    }
+
+    AuthenticationPolicy getControlPlaneAuthPolicy() {
+        return controlPlaneAuthPolicy;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the configured authentication policy doesn't match the mesh configuration
+     */
+    void checkControlPlaneAuthPolicy(ProxyConfig config) {
+        final AuthenticationPolicy meshPolicy = config.getControlPlaneAuthPolicy() == null ? AuthenticationPolicy.NONE : config.getControlPlaneAuthPolicy();
+        if (!meshPolicy.equals(controlPlaneAuthPolicy)) {
+            final String msg = "Configured AuthenticationPolicy %s via 'controlPlaneAuthPolicy' parameter doesn't match Istio ConfigMap configuration %s";
+            throw new IllegalArgumentException(String.format(msg, controlPlaneAuthPolicy, meshPolicy));
+        }
+    }
+
+    boolean isCoreDump() {
+        return coreDump;
+    }
+
+    boolean isDebugImage() {
+        return debugImage;
+    }
+
+    String getAlpineVersion() {
+        return alpineVersion;
+    }
+
+    String getImagePullPolicy() {
+        return imagePullPolicy;
+    }
+
+    int getReplicaCount() {
+        return replicaCount;
+    }
+
+    SidecarSizing getSidecarSizing() {
+        return sidecarSizing;
+    }
+
+    ProxyTuning getProxyTuning() {
+        return proxyTuning;
+    }
+
+    SidecarStartup getSidecarStartup() {
+        return sidecarStartup;
+    }
+
+    TrafficInterception getTrafficInterception() {
+        return trafficInterception;
+    }
+
+    InjectionPolicy getInjectionPolicy() {
+        return injectionPolicy;
+    }
+
+    TriggerPolicy getTriggerPolicy() {
+        return triggerPolicy;
+    }
+
+    ImageStreamDeduplicator.Mode getImageStreamDedup() {
+        return imageStreamDedup;
+    }
+
+    String getProxyName() {
+        return proxyName;
+    }
+
+    String getProxyDockerImageName() {
+        return proxyDockerImageName;
+    }
+
+    String getProxyImageStreamName() {
+        return proxyImageStreamName;
+    }
+
+    String getInitName() {
+        return initName;
+    }
+
+    String getInitDockerImageName() {
+        return initDockerImageName;
+    }
+
+    String getInitImageStreamName() {
+        return initImageStreamName;
+    }
+
+    String getCoreDumpName() {
+        return coreDumpName;
+    }
+
+    String getCoreDumpDockerImageName() {
+        return coreDumpDockerImageName;
+    }
+
+    String getCoreDumpImageStreamName() {
+        return coreDumpImageStreamName;
+    }
+
+    /**
+     * @return - the given image name with the <code>_debug</code> suffix if the debug image is used
+     */
+    String istioImageName(String dockerImage) {
+        return debugImage ? dockerImage + "_debug" : dockerImage;
+    }
+}
@@ -0,0 +1,134 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.fabric8.kubernetes.api.builder.VisitableBuilder;
+import io.fabric8.kubernetes.api.builder.Visitor;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.PodSpecBuilder;
+import io.fabric8.kubernetes.api.model.PodTemplateSpecBuilder;
+import io.fabric8.openshift.api.model.DeploymentConfigSpecBuilder;
+
+/**
+ * Applies all the Istio mutations in a single traversal of a <code>KubernetesListBuilder</code>: the sidecar injection
+ * into every pod template and pod, and the replica count and triggers of every DeploymentConfig.
+ * <p>
+ * Nested builders are visited before their parent: the pod spec of a pod template or pod is always the last
+ * {@link PodSpecBuilder} visited before them, so the sidecar is injected when the parent is visited and its
+ * <code>sidecar.istio.io/status</code> annotation is known. Already injected pods are left alone, which makes
+ * running the enricher again a no-op, and so are the pods the {@link InjectionPolicy} doesn't select, along with the
+ * replicas and triggers of their DeploymentConfig. Updating the nested builders directly also avoids the
+ * <code>editOrNew...()</code> calls on the DeploymentConfig, each of which deep copies the whole spec.
+ *
+ * @author charles moulliard
+ */
+final class IstioVisitor implements Visitor<Object> {
+
+    static final String SIDECAR_STATUS_ANNOTATION = "sidecar.istio.io/status";
+
+    private static final Map<Class<?>, String> KINDS = new ConcurrentHashMap<>();
+
+    private final SidecarTemplate sidecar;
+    private final String sidecarStatus;
+    private final EnricherMetrics metrics;
+    private final InjectionPolicy policy;
+    private PodSpecBuilder lastPodSpec;
+    // kind of the item being visited and whether its pods were selected for injection
+    private String kind;
+    private boolean selected;
+    // the application container of the selected pod template, which the application image trigger updates
+    private String appContainer;
+
+    IstioVisitor(SidecarTemplate sidecar, String sidecarStatus, EnricherMetrics metrics) {
+        this.sidecar = sidecar;
+        this.sidecarStatus = sidecarStatus;
+        this.metrics = metrics;
+        this.policy = sidecar.getSettings().getInjectionPolicy();
+    }
+
+    /**
+     * Visit a single item of a <code>KubernetesListBuilder</code>, whose kind the injection policy is applied to
+     */
+    void visitItem(VisitableBuilder<? extends HasMetadata, ?> item) {
+        kind = KINDS.computeIfAbsent(item.getClass(), IstioVisitor::kindOf);
+        selected = false;
+        appContainer = null;
+        item.accept(this);
+    }
+
+    @Override
+    public void visit(Object element) {
+        if (element instanceof PodSpecBuilder) {
+            lastPodSpec = (PodSpecBuilder) element;
+        } else if (element instanceof PodTemplateSpecBuilder) {
+            final PodTemplateSpecBuilder template = (PodTemplateSpecBuilder) element;
+            final PodSpecBuilder podSpec = takePodSpec();
+            final ObjectMeta metadata = template.buildMetadata();
+            if (podSpec != null && select(metadata)) {
+                final PodSpecIndex index = PodSpecIndex.of(podSpec);
+                appContainer = sidecar.findAppContainer(index);
+                if (!isInjected(metadata)) {
+                    inject(podSpec, index);
+                    // Add Istio Side car annotation
+                    template.editOrNewMetadata()
+                            .addToAnnotations(SIDECAR_STATUS_ANNOTATION, sidecarStatus)
+                            .addToAnnotations(sidecar.getPodAnnotations())
+                            .endMetadata();
+                }
+            }
+        } else if (element instanceof PodBuilder) {
+            final PodBuilder pod = (PodBuilder) element;
+            final PodSpecBuilder podSpec = takePodSpec();
+            final ObjectMeta metadata = pod.buildMetadata();
+            if (podSpec != null && select(metadata) && !isInjected(metadata)) {
+                inject(podSpec, PodSpecIndex.of(podSpec));
+                pod.editOrNewMetadata()
+                        .addToAnnotations(SIDECAR_STATUS_ANNOTATION, sidecarStatus)
+                        .addToAnnotations(sidecar.getPodAnnotations())
+                        .endMetadata();
+            }
+        } else if (element instanceof DeploymentConfigSpecBuilder && selected) {
+            ((DeploymentConfigSpecBuilder) element)
+                    // Specify the replica count
+                    .withReplicas(sidecar.getSettings().getReplicaCount())
+                    .withTriggers(sidecar.getTriggers(appContainer));
+            metrics.count("deploymentConfigs", 1);
+        }
+    }
+
+    private boolean select(ObjectMeta metadata) {
+        selected = policy.isSelected(kind, metadata);
+        if (!selected) {
+            metrics.count("pods.skipped", 1);
+        }
+        return selected;
+    }
+
+    private void inject(PodSpecBuilder podSpec, PodSpecIndex index) {
+        final int containers = sidecar.inject(podSpec, index);
+        metrics.count("pods", 1);
+        metrics.count("containers", containers);
+    }
+
+    /**
+     * @return - the pod spec of the pod template or pod being visited, if it has one
+     */
+    private PodSpecBuilder takePodSpec() {
+        final PodSpecBuilder podSpec = lastPodSpec;
+        lastPodSpec = null;
+        return podSpec;
+    }
+
+    private static String kindOf(Class<?> builder) {
+        final String name = builder.getSimpleName();
+        return name.endsWith("Builder") ? name.substring(0, name.length() - "Builder".length()) : name;
+    }
+
+    private static boolean isInjected(ObjectMeta metadata) {
+        return metadata != null && metadata.getAnnotations() != null
+                && metadata.getAnnotations().containsKey(SIDECAR_STATUS_ANNOTATION);
+    }
+}
@@ -0,0 +1,161 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import me.snowdrop.istio.api.model.v1.mesh.AuthenticationPolicy;
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+
+/**
+ * On-disk cache of the {@link ProxyConfig} fields the enricher reads from the Istio mesh configuration.
+ * <p>
+ * Entries are keyed by cluster, namespace and ConfigMap name and remember the ConfigMap <code>resourceVersion</code>
+ * they were parsed from, so that an expired entry can be revalidated without parsing the mesh YAML again.
+ *
+ * @author charles moulliard
+ */
+final class MeshConfigCache {
+
+    private static final String CLUSTER = "cluster";
+    private static final String NAMESPACE = "namespace";
+    private static final String CONFIG_MAP = "configMap";
+    private static final String RESOURCE_VERSION = "resourceVersion";
+    private static final String FETCHED_AT = "fetchedAt";
+
+    private static final String DISCOVERY_ADDRESS = "discoveryAddress";
+    private static final String ZIPKIN_ADDRESS = "zipkinAddress";
+    private static final String STATSD_UDP_ADDRESS = "statsdUdpAddress";
+    private static final String CONTROL_PLANE_AUTH_POLICY = "controlPlaneAuthPolicy";
+
+    private final File directory;
+    private final long ttlMillis;
+
+    MeshConfigCache(File directory, long ttlMillis) {
+        this.directory = directory;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Read the cached entry for the given ConfigMap
+     *
+     * @return - the cached {@link Entry} or <code>null</code> if there is none or it can't be read
+     */
+    Entry read(String cluster, String namespace, String configMapName) {
+        final File file = fileFor(cluster, namespace, configMapName);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+
+        // guard against hash collisions and hand-edited files
+        if (!cluster.equals(properties.getProperty(CLUSTER))
+                || !namespace.equals(properties.getProperty(NAMESPACE))
+                || !configMapName.equals(properties.getProperty(CONFIG_MAP))) {
+            return null;
+        }
+
+        try {
+            final ProxyConfig config = new ProxyConfig();
+            config.setDiscoveryAddress(properties.getProperty(DISCOVERY_ADDRESS));
+            config.setZipkinAddress(properties.getProperty(ZIPKIN_ADDRESS));
+            config.setStatsdUdpAddress(properties.getProperty(STATSD_UDP_ADDRESS));
+            final String policy = properties.getProperty(CONTROL_PLANE_AUTH_POLICY);
+            if (policy != null) {
+                config.setControlPlaneAuthPolicy(AuthenticationPolicy.valueOf(policy));
+            }
+            return new Entry(properties.getProperty(RESOURCE_VERSION),
+                    Long.parseLong(properties.getProperty(FETCHED_AT, "0")), config);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Store the relevant fields of the given {@link ProxyConfig}, replacing any previous entry
+     */
+    void write(String cluster, String namespace, String configMapName, String resourceVersion, ProxyConfig config) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(CLUSTER, cluster);
+        properties.setProperty(NAMESPACE, namespace);
+        properties.setProperty(CONFIG_MAP, configMapName);
+        properties.setProperty(FETCHED_AT, Long.toString(System.currentTimeMillis()));
+        setIfNotNull(properties, RESOURCE_VERSION, resourceVersion);
+        setIfNotNull(properties, DISCOVERY_ADDRESS, config.getDiscoveryAddress());
+        setIfNotNull(properties, ZIPKIN_ADDRESS, config.getZipkinAddress());
+        setIfNotNull(properties, STATSD_UDP_ADDRESS, config.getStatsdUdpAddress());
+        if (config.getControlPlaneAuthPolicy() != null) {
+            properties.setProperty(CONTROL_PLANE_AUTH_POLICY, config.getControlPlaneAuthPolicy().name());
+        }
+
+        Files.createDirectories(directory.toPath());
+        final Path target = fileFor(cluster, namespace, configMapName).toPath();
+        // write to a temporary file first so that concurrent builds never see a partial entry
+        final Path tmp = Files.createTempFile(directory.toPath(), target.getFileName().toString(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            properties.store(out, "Istio mesh configuration cached by fmp-istio-enricher");
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.fetchedAt < ttlMillis;
+    }
+
+    private File fileFor(String cluster, String namespace, String configMapName) {
+        return new File(directory, sha1(cluster + "|" + namespace + "|" + configMapName) + ".properties");
+    }
+
+    private static void setIfNotNull(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    private static String sha1(String value) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static final class Entry {
+        private final String resourceVersion;
+        private final long fetchedAt;
+        private final ProxyConfig config;
+
+        Entry(String resourceVersion, long fetchedAt, ProxyConfig config) {
+            this.resourceVersion = resourceVersion;
+            this.fetchedAt = fetchedAt;
+            this.config = config;
+        }
+
+        String getResourceVersion() {
+            return resourceVersion;
+        }
+
+        ProxyConfig getConfig() {
+            return config;
+        }
+    }
+}
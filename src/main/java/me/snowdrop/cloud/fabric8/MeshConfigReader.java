@@ -0,0 +1,133 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import me.snowdrop.istio.api.model.v1.mesh.AuthenticationPolicy;
+import me.snowdrop.istio.api.model.v1.mesh.MeshConfig;
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+
+/**
+ * Reads the Istio mesh configuration, as found in the <code>mesh</code> entry of the Istio ConfigMap.
+ * <p>
+ * By default only the <code>defaultConfig</code> fields used by the enricher are pulled from the YAML token stream,
+ * everything else (<code>meshNetworks</code>, extension providers...) is skipped without being materialized. The full
+ * {@link MeshConfig} binding is used in strict mode, to validate the whole document, and as a fallback whenever the
+ * streaming reader meets something it doesn't understand.
+ *
+ * @author charles moulliard
+ */
+final class MeshConfigReader {
+
+    private static final YAMLMapper MAPPER = new YAMLMapper();
+    private static final YAMLFactory FACTORY = MAPPER.getFactory();
+
+    private final boolean strict;
+    private final EnricherMetrics metrics;
+
+    /**
+     * @param strict - bind the whole document to {@link MeshConfig} instead of streaming the needed fields
+     */
+    MeshConfigReader(boolean strict, EnricherMetrics metrics) {
+        this.strict = strict;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param origin - describes where the YAML comes from, used in error messages
+     * @return - the default {@link ProxyConfig} of the mesh
+     */
+    ProxyConfig readProxyConfig(String meshConfig, String origin) {
+        if (metrics.isEnabled()) {
+            metrics.count("meshConfig.bytesParsed", meshConfig.getBytes(StandardCharsets.UTF_8).length);
+        }
+        final EnricherMetrics.Phase phase = metrics.start("meshConfig.parse");
+        try {
+            if (!strict) {
+                final ProxyConfig config = stream(meshConfig);
+                if (config != null) {
+                    return config;
+                }
+            }
+            return bind(meshConfig, origin);
+        } finally {
+            phase.close();
+        }
+    }
+
+    private static ProxyConfig bind(String meshConfig, String origin) {
+        try {
+            final ProxyConfig config = MAPPER.readValue(meshConfig, MeshConfig.class).getDefaultConfig();
+            if (config == null) {
+                throw new IllegalArgumentException("No 'defaultConfig' in Istio Mesh configuration from " + origin);
+            }
+            return config;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Couldn't parse Istio Mesh configuration from " + origin, e);
+        }
+    }
+
+    /**
+     * @return - the streamed {@link ProxyConfig} or <code>null</code> if the full binding has to be used instead
+     */
+    private static ProxyConfig stream(String meshConfig) {
+        try (JsonParser parser = FACTORY.createParser(meshConfig)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("defaultConfig".equals(field)) {
+                    return value == JsonToken.START_OBJECT ? readDefaultConfig(parser) : null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static ProxyConfig readDefaultConfig(JsonParser parser) throws IOException {
+        final ProxyConfig config = new ProxyConfig();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            switch (field) {
+                case "discoveryAddress":
+                    config.setDiscoveryAddress(parser.getValueAsString());
+                    break;
+                case "zipkinAddress":
+                    config.setZipkinAddress(parser.getValueAsString());
+                    break;
+                case "statsdUdpAddress":
+                    config.setStatsdUdpAddress(parser.getValueAsString());
+                    break;
+                case "controlPlaneAuthPolicy":
+                    config.setControlPlaneAuthPolicy(authenticationPolicy(parser, value));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return config;
+    }
+
+    private static AuthenticationPolicy authenticationPolicy(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            final int number = parser.getIntValue();
+            for (AuthenticationPolicy policy : AuthenticationPolicy.values()) {
+                if (policy.value() == number) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown AuthenticationPolicy " + number);
+        }
+        return value == JsonToken.VALUE_NULL ? null : AuthenticationPolicy.valueOf(parser.getValueAsString());
+    }
+}
@@ -0,0 +1,190 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.utils.HttpClientUtils;
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * JVM wide state shared by all the {@link IstioEnricher} instances of a reactor build: lazily created
+ * {@link KubernetesClient}s and the resolved {@link ProxyConfig} per mesh configuration, as identified by the key of
+ * its {@link MeshConfigSourceChain}.
+ * <p>
+ * Resolution is memoized per reactor build, so that a parallel <code>mvn -T</code> build resolves each mesh
+ * configuration exactly once while the other modules wait for that result. Modules configured with different sources,
+ * e.g. their own 'meshConfigFile', get their own configuration. Failed resolutions are not memoized.
+ *
+ * @author charles moulliard
+ */
+final class MeshConfigRegistry {
+
+    private static final ConcurrentMap<String, CompletableFuture<ProxyConfig>> CONFIGS = new ConcurrentHashMap<>();
+    private static volatile String currentBuild;
+    private static final ConcurrentMap<String, KubernetesClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private static final ExecutorService PREFETCH = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "istio-mesh-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private MeshConfigRegistry() {
+    }
+
+    /**
+     * Return the shared {@link KubernetesClient} for the connection and request timeouts and the response size limit of
+     * the given {@link ApiSettings}, created on first use. Its master URL is resolved once, when it is created. Only the
+     * ConfigMap API is used, so unlike <code>ClusterAccess</code> no request is made to find out whether the cluster is
+     * an OpenShift one.
+     */
+    static KubernetesClient client(String namespace, ApiSettings settings) {
+        final String key = namespace + "/" + settings.getConnectTimeoutMillis() + "/" + settings.getRequestTimeoutMillis()
+                + "/" + settings.getMeshConfigMaxSize();
+        return CLIENTS.computeIfAbsent(key, ignored -> {
+            final Config config = Config.autoConfigure();
+            config.setNamespace(namespace);
+            config.setConnectionTimeout(settings.getConnectTimeoutMillis());
+            config.setRequestTimeout(settings.getRequestTimeoutMillis());
+            final OkHttpClient httpClient = HttpClientUtils.createHttpClient(config).newBuilder()
+                    .addInterceptor(limitResponseSize(settings.getMeshConfigMaxSize()))
+                    .build();
+            return new DefaultKubernetesClient(httpClient, config);
+        });
+    }
+
+    /**
+     * @return - an interceptor failing with a {@link ResponseTooLargeException} as soon as a response is known to be
+     * larger than the given number of bytes, from its Content-Length or while it is read, so that it is neither
+     * downloaded further nor parsed
+     */
+    static Interceptor limitResponseSize(long maxSize) {
+        return chain -> {
+            final Response response = chain.proceed(chain.request());
+            final ResponseBody body = response.body();
+            if (body == null) {
+                return response;
+            }
+            if (body.contentLength() > maxSize) {
+                response.close();
+                throw new ResponseTooLargeException(maxSize);
+            }
+
+            final ForwardingSource limited = new ForwardingSource(body.source()) {
+                private long total;
+
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    final long read = super.read(sink, byteCount);
+                    if (read > 0) {
+                        total += read;
+                        if (total > maxSize) {
+                            throw new ResponseTooLargeException(maxSize);
+                        }
+                    }
+                    return read;
+                }
+            };
+            return response.newBuilder()
+                    .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(limited)))
+                    .build();
+        };
+    }
+
+    /**
+     * Thrown by the {@link #limitResponseSize(long)} interceptor, the client usually wraps it
+     */
+    static final class ResponseTooLargeException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        ResponseTooLargeException(long maxSize) {
+            super("The response is larger than " + maxSize + " bytes");
+        }
+
+        /**
+         * @return - whether the given exception was caused by a too large response
+         */
+        static boolean causedBy(Throwable e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof ResponseTooLargeException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Return the {@link ProxyConfig} memoized for the given build and mesh configuration, calling the loader if this is
+     * the first request for it. Concurrent callers for the same key wait for the first one instead of loading it again.
+     *
+     * @param buildId - identifies the reactor build, memoized values from other builds (e.g. in a long-lived daemon JVM) are dropped
+     * @param key - identifies the mesh configuration, see {@link MeshConfigSourceChain#getKey()}
+     */
+    static ProxyConfig resolve(String buildId, String key, Supplier<ProxyConfig> loader) {
+        if (!buildId.equals(currentBuild)) {
+            synchronized (MeshConfigRegistry.class) {
+                if (!buildId.equals(currentBuild)) {
+                    CONFIGS.clear();
+                    currentBuild = buildId;
+                }
+            }
+        }
+
+        final CompletableFuture<ProxyConfig> created = new CompletableFuture<>();
+        final CompletableFuture<ProxyConfig> existing = CONFIGS.putIfAbsent(key, created);
+        if (existing != null) {
+            return join(existing);
+        }
+
+        try {
+            created.complete(loader.get());
+        } catch (RuntimeException e) {
+            CONFIGS.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return join(created);
+    }
+
+    /**
+     * Same as {@link #resolve(String, String, Supplier)} but runs in the background
+     */
+    static CompletableFuture<ProxyConfig> resolveAsync(String buildId, String key, Supplier<ProxyConfig> loader) {
+        return CompletableFuture.supplyAsync(() -> resolve(buildId, key, loader), PREFETCH);
+    }
+
+    /**
+     * @return - the daemon thread pool used to resolve mesh configurations in the background
+     */
+    static ExecutorService executor() {
+        return PREFETCH;
+    }
+
+    private static ProxyConfig join(CompletableFuture<ProxyConfig> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
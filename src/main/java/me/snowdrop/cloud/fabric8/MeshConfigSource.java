@@ -0,0 +1,31 @@
+package me.snowdrop.cloud.fabric8;
+
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+
+/**
+ * A place the Istio mesh configuration can be read from. Sources are tried in the order configured by
+ * 'meshConfigSources', see {@link MeshConfigSourceChain}.
+ *
+ * @author charles moulliard
+ */
+interface MeshConfigSource {
+
+    /**
+     * @return - the name used to refer to this source in the enricher configuration
+     */
+    String getName();
+
+    /**
+     * @return - identifies what this source reads, e.g. the absolute path of a file: sources with the same key load the
+     * same {@link ProxyConfig}
+     */
+    String getKey();
+
+    /**
+     * Load the default {@link ProxyConfig} of the mesh
+     *
+     * @return - the {@link ProxyConfig} or <code>null</code> if this source isn't configured or has nothing to offer
+     * @throws IllegalArgumentException if the source is configured but its content can't be used
+     */
+    ProxyConfig load();
+}
@@ -0,0 +1,211 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import io.fabric8.maven.core.util.Configs;
+import io.fabric8.maven.docker.util.Logger;
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+
+/**
+ * Tries {@link MeshConfigSource}s in order, each one with its own timeout, and returns the first {@link ProxyConfig}
+ * found. A source failing or timing out is reported and the next one is tried.
+ *
+ * @author charles moulliard
+ */
+final class MeshConfigSourceChain {
+
+    /**
+     * Default timeout of the sources which don't call the cluster
+     */
+    static final long LOCAL_SOURCE_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Time given to the ConfigMap source on top of the {@link ApiSettings#getBudgetMillis() budget} of its request, to
+     * create the client and parse the configuration
+     */
+    static final long CONFIGMAP_SOURCE_MARGIN_SECONDS = 5;
+
+    private final List<MeshConfigSource> sources = new ArrayList<>();
+    private final List<Long> timeouts = new ArrayList<>();
+    private final EnricherMetrics metrics;
+    private final Logger log;
+
+    MeshConfigSourceChain(EnricherMetrics metrics, Logger log) {
+        this.metrics = metrics;
+        this.log = log;
+    }
+
+    /**
+     * Build a chain from a comma separated list of source names, each optionally followed by <code>:seconds</code> to
+     * override the default timeout, e.g. <code>file,inline,classpath,configmap:20</code>
+     *
+     * @param defaultTimeouts - the default timeout in seconds of each available source
+     */
+    static MeshConfigSourceChain parse(String order, Map<String, Long> defaultTimeouts, Map<String, MeshConfigSource> available,
+                                       EnricherMetrics metrics, Logger log) {
+        final MeshConfigSourceChain chain = new MeshConfigSourceChain(metrics, log);
+        for (String entry : order.split(",")) {
+            final String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+
+            final int colon = trimmed.indexOf(':');
+            final String name = colon < 0 ? trimmed : trimmed.substring(0, colon).trim();
+            final MeshConfigSource source = available.get(name);
+            if (source == null) {
+                throw new IllegalArgumentException("Unknown Istio Mesh configuration source '" + name + "' in 'meshConfigSources', expected one of " + available.keySet());
+            }
+            final long timeout;
+            try {
+                timeout = colon < 0 ? defaultTimeouts.get(name) : Long.parseLong(trimmed.substring(colon + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid timeout for Istio Mesh configuration source '" + trimmed + "'");
+            }
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("Invalid timeout for Istio Mesh configuration source '" + trimmed + "'");
+            }
+            chain.add(source, timeout);
+        }
+        return chain;
+    }
+
+    /**
+     * Build the chain configured by 'meshConfigSources' out of the file, inline, classpath and ConfigMap sources.
+     * Unless 'meshSourceTimeout' is set, the ConfigMap source is given the time its request can take with all its
+     * retries, so that it fails with its own error instead of being abandoned while it still retries.
+     *
+     * @param config - returns the configured value of a key, or its default
+     * @param baseDirectory - the directory a relative 'meshConfigFile' is resolved against, <code>null</code> for the
+     * working one
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    static MeshConfigSourceChain from(Function<Config, String> config, File baseDirectory, EnricherMetrics metrics, Logger log) {
+        final MeshConfigCache cache = Configs.asBoolean(config.apply(Config.meshCache))
+                ? new MeshConfigCache(new File(config.apply(Config.meshCacheDir)), Configs.asInt(config.apply(Config.meshCacheTtl)) * 1000L)
+                : null;
+
+        final MeshConfigReader reader = new MeshConfigReader(Configs.asBoolean(config.apply(Config.meshStrictParsing)), metrics);
+        final ApiSettings api = ApiSettings.from(config);
+
+        final Map<String, MeshConfigSource> sources = new LinkedHashMap<>();
+        for (MeshConfigSource source : Arrays.asList(
+                new FileMeshConfigSource(baseDirectory, config.apply(Config.meshConfigFile), reader),
+                new InlineMeshConfigSource(config.apply(Config.meshConfig), reader),
+                new ClasspathMeshConfigSource(config.apply(Config.meshConfigResource), IstioEnricher.class.getClassLoader(), reader),
+                new ConfigMapMeshConfigSource(config.apply(Config.istioNamespace), config.apply(Config.istioConfigMapName),
+                        cache, Configs.asBoolean(config.apply(Config.offline)), reader, api, metrics, log))) {
+            sources.put(source.getName(), source);
+        }
+
+        final String sourceTimeout = config.apply(Config.meshSourceTimeout).trim();
+        final Map<String, Long> defaultTimeouts = new LinkedHashMap<>();
+        for (String name : sources.keySet()) {
+            if (!sourceTimeout.isEmpty()) {
+                defaultTimeouts.put(name, positive(sourceTimeout));
+            } else if ("configmap".equals(name)) {
+                defaultTimeouts.put(name, (api.getBudgetMillis() + 999) / 1000 + CONFIGMAP_SOURCE_MARGIN_SECONDS);
+            } else {
+                defaultTimeouts.put(name, LOCAL_SOURCE_TIMEOUT_SECONDS);
+            }
+        }
+
+        return parse(config.apply(Config.meshConfigSources), defaultTimeouts, sources, metrics, log);
+    }
+
+    private static long positive(String sourceTimeout) {
+        try {
+            final long value = Long.parseLong(sourceTimeout);
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid 'meshSourceTimeout' parameter: " + sourceTimeout);
+    }
+
+    MeshConfigSourceChain add(MeshConfigSource source, long timeoutSeconds) {
+        sources.add(source);
+        timeouts.add(timeoutSeconds);
+        return this;
+    }
+
+    /**
+     * @return - the longest time loading from this chain can take, every source timing out in turn
+     */
+    long getTimeoutSeconds() {
+        long total = 0;
+        for (long timeout : timeouts) {
+            total += timeout;
+        }
+        return total;
+    }
+
+    /**
+     * @return - identifies the configuration of the sources of this chain, in order: chains with the same key load the
+     * same {@link ProxyConfig}
+     */
+    String getKey() {
+        final List<String> keys = new ArrayList<>(sources.size());
+        for (MeshConfigSource source : sources) {
+            keys.add(source.getKey());
+        }
+        return String.join(",", keys);
+    }
+
+    ProxyConfig load() {
+        final Map<String, String> failures = new LinkedHashMap<>();
+        RuntimeException lastFailure = null;
+        for (int i = 0; i < sources.size(); i++) {
+            final MeshConfigSource source = sources.get(i);
+            final long timeout = timeouts.get(i);
+            try {
+                final ProxyConfig config = CompletableFuture.supplyAsync(() -> load(source), MeshConfigRegistry.executor())
+                        .get(timeout, TimeUnit.SECONDS);
+                if (config != null) {
+                    log.verbose("Istio Mesh configuration read from " + source.getName() + " source");
+                    return config;
+                }
+                failures.put(source.getName(), "not available");
+            } catch (TimeoutException e) {
+                lastFailure = new IllegalStateException("Timed out after " + timeout + "s", e);
+                failures.put(source.getName(), lastFailure.getMessage());
+                log.warn("Istio Mesh configuration source " + source.getName() + " timed out after " + timeout + "s");
+            } catch (ExecutionException e) {
+                lastFailure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                        : new IllegalStateException(e.getCause());
+                failures.put(source.getName(), lastFailure.getMessage());
+                log.warn("Istio Mesh configuration source " + source.getName() + " failed: " + lastFailure.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while loading the Istio Mesh configuration", e);
+            }
+        }
+
+        if (failures.size() == 1 && lastFailure != null) {
+            throw lastFailure;
+        }
+        throw new IllegalArgumentException("Couldn't load the Istio Mesh configuration from any source: " + failures, lastFailure);
+    }
+
+    private ProxyConfig load(MeshConfigSource source) {
+        final EnricherMetrics.Phase phase = metrics.start("meshConfig.source." + source.getName());
+        try {
+            return source.load();
+        } finally {
+            phase.close();
+        }
+    }
+}
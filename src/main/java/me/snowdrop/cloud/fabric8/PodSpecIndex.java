@@ -0,0 +1,99 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import io.fabric8.kubernetes.api.model.PodSpecBuilder;
+
+/**
+ * Names of the containers, init containers and volumes of a pod spec, and images of the containers, collected in a
+ * single scan of the builder without building any of them, so that the sidecar artifacts already present are detected
+ * with constant time lookups.
+ *
+ * @author charles moulliard
+ */
+final class PodSpecIndex {
+
+    // container names and images, in the order of the pod spec
+    private final Map<String, String> containers = new LinkedHashMap<>();
+    private final Set<String> initContainers = new HashSet<>();
+    private final Set<String> volumes = new HashSet<>();
+
+    private PodSpecIndex() {
+    }
+
+    static PodSpecIndex of(PodSpecBuilder podSpecBuilder) {
+        final PodSpecIndex index = new PodSpecIndex();
+        // the predicates never match, they are only used to walk the nested builders
+        podSpecBuilder.buildMatchingContainer(container -> {
+            index.containers.put(container.getName(), container.getImage());
+            return false;
+        });
+        podSpecBuilder.buildMatchingInitContainer(container -> {
+            index.initContainers.add(container.getName());
+            return false;
+        });
+        podSpecBuilder.buildMatchingVolume(volume -> {
+            index.volumes.add(volume.getName());
+            return false;
+        });
+        return index;
+    }
+
+    boolean hasContainer(String name) {
+        return containers.containsKey(name);
+    }
+
+    /**
+     * @param imageStream - the name of the application image stream
+     * @param sidecarContainers - the names of the containers added by the enricher
+     * @return - the container running the given image stream, else the first container which isn't part of the sidecar,
+     * or <code>null</code> if there is none
+     */
+    String findAppContainer(String imageStream, Collection<String> sidecarContainers) {
+        String first = null;
+        for (Map.Entry<String, String> container : containers.entrySet()) {
+            if (sidecarContainers.contains(container.getKey())) {
+                continue;
+            }
+            if (imageStream.equals(imageName(container.getValue()))) {
+                return container.getKey();
+            }
+            if (first == null) {
+                first = container.getKey();
+            }
+        }
+        return first;
+    }
+
+    boolean hasInitContainer(String name) {
+        return initContainers.contains(name);
+    }
+
+    boolean hasVolume(String name) {
+        return volumes.contains(name);
+    }
+
+    /**
+     * @return - the name of the given image, without its registry, namespace, tag and digest
+     */
+    private static String imageName(String image) {
+        if (image == null) {
+            return null;
+        }
+        String name = image;
+        final int digest = name.indexOf('@');
+        if (digest >= 0) {
+            name = name.substring(0, digest);
+        }
+        final int slash = name.lastIndexOf('/');
+        final int colon = name.lastIndexOf(':');
+        if (colon > slash) {
+            name = name.substring(0, colon);
+        }
+        return name.substring(slash + 1);
+    }
+}
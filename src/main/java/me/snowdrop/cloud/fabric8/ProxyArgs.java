@@ -1,47 +1,133 @@
 package me.snowdrop.cloud.fabric8;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Arguments of the Istio proxy sidecar, per family of Istio releases.
+ * <p>
+ * Each template is tokenized once into literal arguments and typed {@link Placeholder} slots, so rendering only fills
+ * the slots in and never re-parses the template. Releases are mapped to the template they use in an index which
+ * accepts exact versions as well as patch ranges such as <code>0.6.x</code>: supporting a new release that keeps the
+ * same proxy arguments is a single {@link #release(String, ProxyArgs)} line.
+ */
 public enum ProxyArgs {
-    RELEASE_0_2_12("0.2.12",
-                   "proxy,sidecar," +
-                   "-v,2," +
-                   "--configPath,/etc/istio/proxy," +
-                   "--binaryPath,/usr/local/bin/envoy," +
-                   "--serviceCluster,%s," +
-                   "--drainDuration,45s," +
-                   "--parentShutdownDuration,1m0s," +
-                   "--discoveryAddress,%s," +
-                   "--discoveryRefreshDelay,1s," +
-                   "--zipkinAddress,%s," +
-                   "--connectTimeout,10s," +
-                   "--statsdUdpAddress,%s," +
-                   "--proxyAdminPort,15000"),
-
-    RELEASE_0_3_0("0.3.0", RELEASE_0_2_12.args + "," +
-                  "--controlPlaneAuthPolicy,%s"),
-
-    RELEASE_0_4_0("0.4.0",RELEASE_0_3_0.args),
-    
-    RELEASE_0_5_0("0.5.0",RELEASE_0_4_0.args),
-    
-    RELEASE_0_6_0("0.6.0", RELEASE_0_5_0.args);
-
-    private final String version;
-    private final String args;
-
-    ProxyArgs(String version, String args) {
-        this.version = version;
-        this.args = args;
-    }
-    public String getArgs() {
-        return args;
-    }
-
-    public static String findByRelease(String release){
-        for(ProxyArgs v : values()){
-            if( v.version.equals(release)){
-                return v.args;
+    RELEASE_0_2_12("proxy", "sidecar",
+                   "-v", "2",
+                   "--configPath", "/etc/istio/proxy",
+                   "--binaryPath", "/usr/local/bin/envoy",
+                   "--serviceCluster", Placeholder.SERVICE_CLUSTER,
+                   "--drainDuration", Placeholder.DRAIN_DURATION,
+                   "--parentShutdownDuration", Placeholder.PARENT_SHUTDOWN_DURATION,
+                   "--discoveryAddress", Placeholder.DISCOVERY_ADDRESS,
+                   "--discoveryRefreshDelay", Placeholder.DISCOVERY_REFRESH_DELAY,
+                   "--zipkinAddress", Placeholder.ZIPKIN_ADDRESS,
+                   "--connectTimeout", Placeholder.CONNECT_TIMEOUT,
+                   "--statsdUdpAddress", Placeholder.STATSD_UDP_ADDRESS,
+                   "--proxyAdminPort", "15000"),
+
+    RELEASE_0_3_0(RELEASE_0_2_12,
+                  "--controlPlaneAuthPolicy", Placeholder.CONTROL_PLANE_AUTH_POLICY);
+
+    /**
+     * The values filled in when rendering a template
+     */
+    public enum Placeholder {
+        SERVICE_CLUSTER,
+        DRAIN_DURATION,
+        PARENT_SHUTDOWN_DURATION,
+        DISCOVERY_ADDRESS,
+        DISCOVERY_REFRESH_DELAY,
+        CONNECT_TIMEOUT,
+        ZIPKIN_ADDRESS,
+        STATSD_UDP_ADDRESS,
+        CONTROL_PLANE_AUTH_POLICY
+    }
+
+    private static final Map<String, ProxyArgs> RELEASES = new HashMap<>();
+
+    static {
+        release("0.2.12", RELEASE_0_2_12);
+        release("0.3.x", RELEASE_0_3_0);
+        release("0.4.x", RELEASE_0_3_0);
+        release("0.5.x", RELEASE_0_3_0);
+        release("0.6.x", RELEASE_0_3_0);
+    }
+
+    // either String literals or Placeholder slots
+    private final Object[] tokens;
+
+    ProxyArgs(Object... tokens) {
+        this.tokens = tokens;
+    }
+
+    ProxyArgs(ProxyArgs parent, Object... tokens) {
+        this.tokens = Arrays.copyOf(parent.tokens, parent.tokens.length + tokens.length);
+        System.arraycopy(tokens, 0, this.tokens, parent.tokens.length, tokens.length);
+    }
+
+    private static void release(String release, ProxyArgs args) {
+        RELEASES.put(release, args);
+    }
+
+    /**
+     * Render the proxy arguments, each placeholder slot being replaced by its value as a single argument
+     *
+     * @return - an immutable list of arguments
+     */
+    public List<String> render(EnumMap<Placeholder, String> values) {
+        final String[] args = new String[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            final Object token = tokens[i];
+            args[i] = token instanceof Placeholder ? String.valueOf(values.get(token)) : (String) token;
+        }
+        return Collections.unmodifiableList(Arrays.asList(args));
+    }
+
+    /**
+     * @return - whether the template of this release has a slot for the given placeholder
+     */
+    public boolean supports(Placeholder placeholder) {
+        for (Object token : tokens) {
+            if (token == placeholder) {
+                return true;
             }
         }
-        return null;
+        return false;
+    }
+
+    /**
+     * @return - the port of the Envoy admin interface, which listens on the loopback interface only
+     */
+    public int getAdminPort() {
+        for (int i = 0; i < tokens.length - 1; i++) {
+            if ("--proxyAdminPort".equals(tokens[i])) {
+                return Integer.parseInt((String) tokens[i + 1]);
+            }
+        }
+        throw new IllegalStateException("No admin port in the proxy arguments of " + this);
+    }
+
+    /**
+     * Find the template used by the given release, looking for an exact match first and then for its
+     * <code>major.minor.x</code> patch range
+     *
+     * @return - the matching {@link ProxyArgs} or <code>null</code> if the release isn't supported
+     */
+    public static ProxyArgs forRelease(String release) {
+        if (release == null) {
+            return null;
+        }
+
+        final ProxyArgs exact = RELEASES.get(release);
+        if (exact != null) {
+            return exact;
+        }
+        final int lastDot = release.lastIndexOf('.');
+        return lastDot > 0 && release.indexOf('.') < lastDot ? RELEASES.get(release.substring(0, lastDot) + ".x") : null;
     }
 }
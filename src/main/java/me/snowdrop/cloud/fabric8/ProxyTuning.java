@@ -0,0 +1,148 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+
+/**
+ * Control plane polling and drain settings of the Istio proxy: <code>--discoveryRefreshDelay</code>,
+ * <code>--drainDuration</code>, <code>--parentShutdownDuration</code> and <code>--connectTimeout</code>.
+ * <p>
+ * The 'proxyTuning' preset provides the four values, each of which can be overridden by its own parameter. Values are Go
+ * durations, e.g. <code>1m30s</code>, validated with the rules Istio applies to its mesh configuration and against the
+ * arguments supported by the selected release.
+ *
+ * @author charles moulliard
+ */
+final class ProxyTuning {
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(h|ms|m|s)");
+
+    enum Preset {
+        DEFAULT("default", "1s", "45s", "1m0s", "10s"),
+        // fresher configuration and faster failover, at the expense of Pilot CPU
+        LOW_LATENCY("low-latency", "1s", "5s", "15s", "1s"),
+        // ten times fewer discovery requests, for large meshes
+        LOW_OVERHEAD("low-overhead", "10s", "45s", "1m0s", "10s");
+
+        private final String id;
+        private final EnumMap<ProxyArgs.Placeholder, String> values = new EnumMap<>(ProxyArgs.Placeholder.class);
+
+        Preset(String id, String discoveryRefreshDelay, String drainDuration, String parentShutdownDuration, String connectTimeout) {
+            this.id = id;
+            values.put(ProxyArgs.Placeholder.DISCOVERY_REFRESH_DELAY, discoveryRefreshDelay);
+            values.put(ProxyArgs.Placeholder.DRAIN_DURATION, drainDuration);
+            values.put(ProxyArgs.Placeholder.PARENT_SHUTDOWN_DURATION, parentShutdownDuration);
+            values.put(ProxyArgs.Placeholder.CONNECT_TIMEOUT, connectTimeout);
+        }
+
+        static Preset of(String id) {
+            for (Preset preset : values()) {
+                if (preset.id.equalsIgnoreCase(id.trim())) {
+                    return preset;
+                }
+            }
+            throw new IllegalArgumentException("Unknown 'proxyTuning' parameter: " + id
+                    + ", expected one of default, low-latency or low-overhead");
+        }
+    }
+
+    private final EnumMap<ProxyArgs.Placeholder, String> values;
+
+    private ProxyTuning(EnumMap<ProxyArgs.Placeholder, String> values) {
+        this.values = values;
+    }
+
+    /**
+     * @param release - the proxy arguments of the selected Istio release
+     * @return - the durations of the 'proxyTuning' preset, overridden by any of 'discoveryRefreshDelay', 'drainDuration',
+     * 'parentShutdownDuration' and 'connectTimeout' which is set
+     * @throws IllegalArgumentException for an unknown preset, a duration the release doesn't accept or one Istio would
+     * reject, e.g. a 'parentShutdownDuration' not longer than the 'drainDuration'
+     */
+    static ProxyTuning from(Function<Config, String> config, ProxyArgs release) {
+        final Preset preset = Preset.of(config.apply(Config.proxyTuning));
+        final EnumMap<ProxyArgs.Placeholder, String> values = new EnumMap<>(preset.values);
+        override(values, config, Config.discoveryRefreshDelay, ProxyArgs.Placeholder.DISCOVERY_REFRESH_DELAY, release);
+        override(values, config, Config.drainDuration, ProxyArgs.Placeholder.DRAIN_DURATION, release);
+        override(values, config, Config.parentShutdownDuration, ProxyArgs.Placeholder.PARENT_SHUTDOWN_DURATION, release);
+        override(values, config, Config.connectTimeout, ProxyArgs.Placeholder.CONNECT_TIMEOUT, release);
+
+        // same rules as the Istio mesh configuration validation
+        final long refresh = millis(values.get(ProxyArgs.Placeholder.DISCOVERY_REFRESH_DELAY), Config.discoveryRefreshDelay);
+        final long drain = millis(values.get(ProxyArgs.Placeholder.DRAIN_DURATION), Config.drainDuration);
+        final long parentShutdown = millis(values.get(ProxyArgs.Placeholder.PARENT_SHUTDOWN_DURATION), Config.parentShutdownDuration);
+        final long connect = millis(values.get(ProxyArgs.Placeholder.CONNECT_TIMEOUT), Config.connectTimeout);
+        if (refresh < 1) {
+            throw new IllegalArgumentException("'discoveryRefreshDelay' must be at least 1ms");
+        }
+        if (connect < 1) {
+            throw new IllegalArgumentException("'connectTimeout' must be at least 1ms");
+        }
+        if (drain < 1000 || drain % 1000 != 0) {
+            throw new IllegalArgumentException("'drainDuration' must be a whole number of seconds, at least 1s");
+        }
+        if (parentShutdown < 1000 || parentShutdown % 1000 != 0) {
+            throw new IllegalArgumentException("'parentShutdownDuration' must be a whole number of seconds, at least 1s");
+        }
+        if (parentShutdown <= drain) {
+            throw new IllegalArgumentException("'parentShutdownDuration' (" + values.get(ProxyArgs.Placeholder.PARENT_SHUTDOWN_DURATION)
+                    + ") must be longer than 'drainDuration' (" + values.get(ProxyArgs.Placeholder.DRAIN_DURATION) + ")");
+        }
+        return new ProxyTuning(values);
+    }
+
+    /**
+     * Fill the proxy arguments placeholders in
+     */
+    void putTo(Map<ProxyArgs.Placeholder, String> placeholders) {
+        placeholders.putAll(values);
+    }
+
+    private static void override(EnumMap<ProxyArgs.Placeholder, String> values, Function<Config, String> config, Config key,
+                                 ProxyArgs.Placeholder placeholder, ProxyArgs release) {
+        final String value = config.apply(key);
+        if (value == null || value.trim().isEmpty()) {
+            return;
+        }
+        if (!release.supports(placeholder)) {
+            throw new IllegalArgumentException("'" + key.name() + "' isn't supported by the proxy of Istio release " + release);
+        }
+        values.put(placeholder, value.trim());
+    }
+
+    /**
+     * @return - the given Go duration, e.g. <code>1m0s</code> or <code>500ms</code>, in milliseconds
+     */
+    private static long millis(String duration, Config key) {
+        final Matcher matcher = DURATION_PART.matcher(duration);
+        double millis = 0;
+        int end = 0;
+        while (matcher.find() && matcher.start() == end) {
+            final double amount = Double.parseDouble(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "h":
+                    millis += amount * 3_600_000;
+                    break;
+                case "m":
+                    millis += amount * 60_000;
+                    break;
+                case "s":
+                    millis += amount * 1000;
+                    break;
+                default:
+                    millis += amount;
+            }
+            end = matcher.end();
+        }
+        if (end == 0 || end != duration.length()) {
+            throw new IllegalArgumentException("Invalid '" + key.name() + "' parameter: " + duration
+                    + ", expected a duration such as 500ms, 10s or 1m30s");
+        }
+        return Math.round(millis);
+    }
+}
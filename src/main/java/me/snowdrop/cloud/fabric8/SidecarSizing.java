@@ -0,0 +1,264 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceRequirements;
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+
+/**
+ * CPU and memory requests and limits of the Istio proxy container, as selected by the 'proxyProfile' parameter and
+ * refined by the 'proxyCpuRequest', 'proxyCpuLimit', 'proxyMemoryRequest' and 'proxyMemoryLimit' ones.
+ * <p>
+ * The <code>auto</code> profile sizes the proxy of each pod after the resources of its application containers: a
+ * quarter of their requests and half of their limits. Pods whose containers don't declare any resources get the
+ * <code>balanced</code> profile.
+ * <p>
+ * A request is never more than its limit: when they conflict, the configured value wins over the one of the profile and
+ * the request is lowered to the limit if neither was configured.
+ *
+ * @author charles moulliard
+ */
+final class SidecarSizing {
+
+    private static final String CPU = "cpu";
+    private static final String MEMORY = "memory";
+
+    private static final String[] MEMORY_SUFFIXES = {"Ki", "Mi", "Gi", "Ti", "k", "M", "G", "T"};
+    private static final long[] MEMORY_MULTIPLIERS = {1L << 10, 1L << 20, 1L << 30, 1L << 40, 1000L, 1000_000L, 1000_000_000L, 1000_000_000_000L};
+
+    enum Profile {
+        NONE("none", null, null, null, null),
+        TINY("tiny", "10m", "100m", "32Mi", "64Mi"),
+        BALANCED("balanced", "100m", "500m", "128Mi", "256Mi"),
+        HIGH_THROUGHPUT("high-throughput", "500m", "2", "256Mi", "1Gi"),
+        AUTO("auto", null, null, null, null);
+
+        private final String id;
+        private final SidecarSizing sizing;
+
+        Profile(String id, String cpuRequest, String cpuLimit, String memoryRequest, String memoryLimit) {
+            this.id = id;
+            this.sizing = new SidecarSizing(this, cpuRequest, cpuLimit, memoryRequest, memoryLimit, null);
+        }
+
+        static Profile of(String id) {
+            for (Profile profile : values()) {
+                if (profile.id.equalsIgnoreCase(id.trim())) {
+                    return profile;
+                }
+            }
+            throw new IllegalArgumentException("Unknown 'proxyProfile' parameter: " + id
+                    + ", expected one of none, tiny, balanced, high-throughput or auto");
+        }
+    }
+
+    private final Profile profile;
+    private final String cpuRequest;
+    private final String cpuLimit;
+    private final String memoryRequest;
+    private final String memoryLimit;
+    // the explicitly configured values, applied on top of what the auto profile computes
+    private final SidecarSizing overrides;
+
+    private SidecarSizing(Profile profile, String cpuRequest, String cpuLimit, String memoryRequest, String memoryLimit,
+                          SidecarSizing overrides) {
+        this.profile = profile;
+        this.cpuRequest = cpuRequest;
+        this.cpuLimit = cpuLimit;
+        this.memoryRequest = memoryRequest;
+        this.memoryLimit = memoryLimit;
+        this.overrides = overrides;
+    }
+
+    /**
+     * @return - the resources of the 'proxyProfile' profile, overridden by any of 'proxyCpuRequest', 'proxyCpuLimit',
+     * 'proxyMemoryRequest' and 'proxyMemoryLimit' which is set
+     * @throws IllegalArgumentException for an unknown profile, a malformed quantity, or a request set above its limit
+     */
+    static SidecarSizing from(Function<Config, String> config) {
+        final Profile profile = Profile.of(config.apply(Config.proxyProfile));
+        final SidecarSizing overrides = new SidecarSizing(profile,
+                cpu(config, Config.proxyCpuRequest),
+                cpu(config, Config.proxyCpuLimit),
+                memory(config, Config.proxyMemoryRequest),
+                memory(config, Config.proxyMemoryLimit),
+                null);
+        return profile.sizing.with(overrides);
+    }
+
+    Profile getProfile() {
+        return profile;
+    }
+
+    boolean isAuto() {
+        return profile == Profile.AUTO;
+    }
+
+    /**
+     * @return - the resources of the proxy container, empty when neither the profile nor the parameters set any
+     */
+    ResourceRequirements getResources() {
+        final Map<String, Quantity> requests = new LinkedHashMap<>();
+        putIfNotNull(requests, CPU, cpuRequest);
+        putIfNotNull(requests, MEMORY, memoryRequest);
+        final Map<String, Quantity> limits = new LinkedHashMap<>();
+        putIfNotNull(limits, CPU, cpuLimit);
+        putIfNotNull(limits, MEMORY, memoryLimit);
+        return new ResourceRequirements(limits, requests);
+    }
+
+    /**
+     * Size the proxy after the given application containers, the explicitly configured values taking precedence
+     *
+     * @return - this sizing if it isn't the <code>auto</code> one
+     */
+    SidecarSizing forContainers(List<Container> containers) {
+        if (!isAuto()) {
+            return this;
+        }
+
+        long cpuRequests = 0, cpuLimits = 0, memoryRequests = 0, memoryLimits = 0;
+        for (Container container : containers) {
+            final ResourceRequirements resources = container.getResources();
+            if (resources != null) {
+                cpuRequests += millicores(quantity(resources.getRequests(), CPU));
+                cpuLimits += millicores(quantity(resources.getLimits(), CPU));
+                memoryRequests += bytes(quantity(resources.getRequests(), MEMORY));
+                memoryLimits += bytes(quantity(resources.getLimits(), MEMORY));
+            }
+        }
+        if (cpuRequests == 0 && cpuLimits == 0 && memoryRequests == 0 && memoryLimits == 0) {
+            return Profile.BALANCED.sizing.with(overrides);
+        }
+
+        final long proxyCpuRequest = cpuRequests == 0 ? 0 : Math.max(10, cpuRequests / 4);
+        final long proxyCpuLimit = cpuLimits == 0 ? 0 : Math.max(100, cpuLimits / 2);
+        return new SidecarSizing(Profile.AUTO,
+                proxyCpuRequest == 0 ? null : proxyCpuRequest + "m",
+                proxyCpuLimit == 0 ? null : proxyCpuLimit + "m",
+                memoryRequests == 0 ? null : mebibytes(Math.max(32L << 20, memoryRequests / 4)),
+                memoryLimits == 0 ? null : mebibytes(Math.max(64L << 20, memoryLimits / 2)),
+                null)
+                .with(overrides);
+    }
+
+    private SidecarSizing with(SidecarSizing values) {
+        final String[] cpu = fit(values.cpuRequest != null ? values.cpuRequest : cpuRequest,
+                values.cpuLimit != null ? values.cpuLimit : cpuLimit,
+                values.cpuRequest != null, values.cpuLimit != null,
+                Config.proxyCpuRequest, Config.proxyCpuLimit, SidecarSizing::millicores);
+        final String[] memory = fit(values.memoryRequest != null ? values.memoryRequest : memoryRequest,
+                values.memoryLimit != null ? values.memoryLimit : memoryLimit,
+                values.memoryRequest != null, values.memoryLimit != null,
+                Config.proxyMemoryRequest, Config.proxyMemoryLimit, SidecarSizing::bytes);
+        return new SidecarSizing(profile, cpu[0], cpu[1], memory[0], memory[1], values);
+    }
+
+    /**
+     * Keep a request within its limit, as Kubernetes rejects a container requesting more than its limit: an explicitly
+     * configured value wins over the one of the profile, which is moved to match it, and two explicit values must be
+     * consistent
+     *
+     * @return - the request and the limit
+     */
+    private static String[] fit(String request, String limit, boolean explicitRequest, boolean explicitLimit,
+                                Config requestKey, Config limitKey, ToLongFunction<String> amount) {
+        if (request == null || limit == null || amount.applyAsLong(request) <= amount.applyAsLong(limit)) {
+            return new String[]{request, limit};
+        }
+        if (explicitRequest && explicitLimit) {
+            throw new IllegalArgumentException("Invalid '" + requestKey.name() + "' parameter: " + request
+                    + " is more than the '" + limitKey.name() + "' one, " + limit);
+        }
+        return explicitRequest ? new String[]{request, request} : new String[]{limit, limit};
+    }
+
+    private static String cpu(Function<Config, String> config, Config key) {
+        final String value = trimToNull(config.apply(key));
+        if (value != null) {
+            try {
+                millicores(value);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid '" + key.name() + "' parameter: " + value);
+            }
+        }
+        return value;
+    }
+
+    private static String memory(Function<Config, String> config, Config key) {
+        final String value = trimToNull(config.apply(key));
+        if (value != null) {
+            try {
+                bytes(value);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid '" + key.name() + "' parameter: " + value);
+            }
+        }
+        return value;
+    }
+
+    private static String trimToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    private static void putIfNotNull(Map<String, Quantity> quantities, String name, String amount) {
+        if (amount != null) {
+            quantities.put(name, new Quantity(amount));
+        }
+    }
+
+    private static String quantity(Map<String, Quantity> quantities, String name) {
+        final Quantity quantity = quantities != null ? quantities.get(name) : null;
+        return quantity != null ? quantity.getAmount() : null;
+    }
+
+    private static String mebibytes(long bytes) {
+        return ((bytes + (1L << 20) - 1) >> 20) + "Mi";
+    }
+
+    /**
+     * @return - the given CPU quantity, e.g. <code>500m</code> or <code>0.5</code>, in millicores
+     */
+    private static long millicores(String amount) {
+        if (amount == null) {
+            return 0;
+        }
+        try {
+            if (amount.endsWith("m")) {
+                return Long.parseLong(amount.substring(0, amount.length() - 1));
+            }
+            return new BigDecimal(amount).movePointRight(3).setScale(0, RoundingMode.CEILING).longValueExact();
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid CPU quantity: " + amount);
+        }
+    }
+
+    /**
+     * @return - the given memory quantity, e.g. <code>128Mi</code> or <code>1G</code>, in bytes
+     */
+    static long bytes(String amount) {
+        if (amount == null) {
+            return 0;
+        }
+        try {
+            for (int i = 0; i < MEMORY_SUFFIXES.length; i++) {
+                if (amount.endsWith(MEMORY_SUFFIXES[i])) {
+                    return new BigDecimal(amount.substring(0, amount.length() - MEMORY_SUFFIXES[i].length()))
+                            .multiply(BigDecimal.valueOf(MEMORY_MULTIPLIERS[i]))
+                            .setScale(0, RoundingMode.CEILING).longValueExact();
+                }
+            }
+            return new BigDecimal(amount).setScale(0, RoundingMode.CEILING).longValueExact();
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid memory quantity: " + amount);
+        }
+    }
+}
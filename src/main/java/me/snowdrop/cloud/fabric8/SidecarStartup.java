@@ -0,0 +1,125 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.function.Function;
+
+import io.fabric8.kubernetes.api.model.Lifecycle;
+import io.fabric8.kubernetes.api.model.LifecycleBuilder;
+import io.fabric8.kubernetes.api.model.Probe;
+import io.fabric8.kubernetes.api.model.ProbeBuilder;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.maven.core.util.Configs;
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+
+/**
+ * How the Istio proxy starts and reports that it is ready, as selected by the 'proxyReadinessProbe',
+ * 'holdApplicationUntilProxyStarts' and 'envoyVolumeSizeLimit' parameters.
+ * <p>
+ * The readiness probe is a TCP probe of the outbound listener, which Envoy only opens once it got its listeners from
+ * Pilot and which, unlike the admin interface, doesn't only listen on the loopback interface.
+ * <p>
+ * Kubernetes starts the containers of a pod in order, waiting for the <code>postStart</code> hook of each one to
+ * complete before starting the next one. Holding the application thus moves the proxy first and gives it a hook
+ * waiting for the admin port and the outbound listener, for at most {@link #HOLD_TIMEOUT_SECONDS} seconds, so that the
+ * application doesn't start with its outbound calls failing until the proxy is configured. A hook can't reach the
+ * loopback interface from outside the container, so it runs in the proxy image and opens the ports with the
+ * <code>/dev/tcp</code> files of bash: an image without <code>/bin/bash</code> doesn't hold the application.
+ *
+ * @author charles moulliard
+ */
+final class SidecarStartup {
+
+    static final int HOLD_TIMEOUT_SECONDS = 120;
+
+    private static final int OUTBOUND_PORT = 15001;
+
+    private final Probe readinessProbe;
+    private final Lifecycle lifecycle;
+    private final Quantity envoyVolumeSizeLimit;
+
+    private SidecarStartup(Probe readinessProbe, Lifecycle lifecycle, Quantity envoyVolumeSizeLimit) {
+        this.readinessProbe = readinessProbe;
+        this.lifecycle = lifecycle;
+        this.envoyVolumeSizeLimit = envoyVolumeSizeLimit;
+    }
+
+    /**
+     * @param config - returns the configured value of a key, or its default
+     * @param release - the proxy arguments of the Istio release
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    static SidecarStartup from(Function<Config, String> config, ProxyArgs release) {
+        Probe readinessProbe = null;
+        if (Configs.asBoolean(config.apply(Config.proxyReadinessProbe))) {
+            readinessProbe = new ProbeBuilder()
+                    .withNewTcpSocket()
+                      .withNewPort(OUTBOUND_PORT)
+                    .endTcpSocket()
+                    .withInitialDelaySeconds(1)
+                    .withPeriodSeconds(2)
+                    .withFailureThreshold(30)
+                    .build();
+        }
+
+        Lifecycle lifecycle = null;
+        if (Configs.asBoolean(config.apply(Config.holdApplicationUntilProxyStarts))) {
+            lifecycle = new LifecycleBuilder()
+                    .withNewPostStart()
+                      .withNewExec()
+                        .withCommand("/bin/sh", "-c", "[ -x /bin/bash ] || exit 0; exec /bin/bash -c '"
+                                + "for i in $(seq " + HOLD_TIMEOUT_SECONDS + "); do " + portsReady(release.getAdminPort())
+                                + " && exit 0; sleep 1; done'")
+                      .endExec()
+                    .endPostStart()
+                    .build();
+        }
+
+        return new SidecarStartup(readinessProbe, lifecycle, sizeLimit(config));
+    }
+
+    /**
+     * @return - the readiness probe of the proxy container, <code>null</code> if disabled
+     */
+    Probe getReadinessProbe() {
+        return readinessProbe;
+    }
+
+    /**
+     * @return - the lifecycle of the proxy container, <code>null</code> unless the application is held
+     */
+    Lifecycle getLifecycle() {
+        return lifecycle;
+    }
+
+    /**
+     * @return - whether the proxy container goes before the application ones
+     */
+    boolean isProxyFirst() {
+        return lifecycle != null;
+    }
+
+    /**
+     * @return - the size limit of the <code>istio-envoy</code> volume, <code>null</code> if unbounded
+     */
+    Quantity getEnvoyVolumeSizeLimit() {
+        return envoyVolumeSizeLimit;
+    }
+
+    private static String portsReady(int adminPort) {
+        return "(</dev/tcp/127.0.0.1/" + adminPort + " && </dev/tcp/127.0.0.1/" + OUTBOUND_PORT + ") 2>/dev/null";
+    }
+
+    private static Quantity sizeLimit(Function<Config, String> config) {
+        final String value = config.apply(Config.envoyVolumeSizeLimit).trim();
+        if (value.isEmpty()) {
+            return null;
+        }
+        try {
+            if (SidecarSizing.bytes(value) > 0) {
+                return new Quantity(value);
+            }
+        } catch (IllegalArgumentException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid 'envoyVolumeSizeLimit' parameter: " + value);
+    }
+}
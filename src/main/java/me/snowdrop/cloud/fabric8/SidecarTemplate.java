@@ -0,0 +1,524 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import io.fabric8.kubernetes.api.model.CapabilitiesBuilder;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerBuilder;
+import io.fabric8.kubernetes.api.model.EmptyDirVolumeSourceBuilder;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.EnvVarSource;
+import io.fabric8.kubernetes.api.model.ObjectFieldSelector;
+import io.fabric8.kubernetes.api.model.PodSpecBuilder;
+import io.fabric8.kubernetes.api.model.SecretVolumeSourceBuilder;
+import io.fabric8.kubernetes.api.model.SecurityContextBuilder;
+import io.fabric8.kubernetes.api.model.Volume;
+import io.fabric8.kubernetes.api.model.VolumeBuilder;
+import io.fabric8.kubernetes.api.model.VolumeMount;
+import io.fabric8.kubernetes.api.model.VolumeMountBuilder;
+import io.fabric8.openshift.api.model.DeploymentTriggerPolicy;
+import io.fabric8.openshift.api.model.DeploymentTriggerPolicyBuilder;
+import io.fabric8.openshift.api.model.ImageStream;
+import io.fabric8.openshift.api.model.ImageStreamBuilder;
+import io.fabric8.utils.Strings;
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+
+/**
+ * The Istio sidecar fragment, built once per execution from the {@link IstioSettings} and the proxy arguments.
+ * <p>
+ * Everything that doesn't depend on the pod is built here once and shared: the proxy container, the init containers,
+ * the <code>istio-envoy</code> volume, the DeploymentConfig triggers and the ImageStreams. Only the
+ * <code>istio-certs</code> secret volume, which depends on the pod service account, is built per pod, as well as the
+ * proxy container when it is sized after the application, see {@link SidecarSizing}.
+ *
+ * @author kameshs
+ * @author charles moulliard
+ */
+final class SidecarTemplate {
+
+    private static final String CERTS_VOLUME = "istio-certs";
+
+    private final IstioSettings settings;
+    private final List<String> proxyArgs;
+    private final Container proxyContainer;
+    private final List<Container> initContainers;
+    private final Volume envoyVolume;
+    private final List<DeploymentTriggerPolicy> triggers;
+    private final List<ImageStream> imageStreams;
+
+    /**
+     * @param proxyArgs - the values of the proxy arguments template
+     */
+    SidecarTemplate(IstioSettings settings, EnumMap<ProxyArgs.Placeholder, String> proxyArgs) {
+        this.settings = settings;
+        this.proxyArgs = settings.getProxyArgs().render(proxyArgs);
+        this.proxyContainer = proxyContainer(settings.getSidecarSizing());
+        this.initContainers = Collections.unmodifiableList(populateInitContainers());
+        this.envoyVolume = envoyVolume();
+        this.triggers = Collections.unmodifiableList(populateTriggers());
+        this.imageStreams = Collections.unmodifiableList(istioImageStream(settings));
+    }
+
+    /**
+     * Build the sidecar fragment, filling the placeholders of the proxy arguments template in from the settings and
+     * the mesh configuration
+     */
+    static SidecarTemplate from(IstioSettings settings, ProxyConfig config) {
+        final EnumMap<ProxyArgs.Placeholder, String> proxyArgs = new EnumMap<>(ProxyArgs.Placeholder.class);
+        proxyArgs.put(ProxyArgs.Placeholder.SERVICE_CLUSTER, settings.getServiceCluster());
+        proxyArgs.put(ProxyArgs.Placeholder.DISCOVERY_ADDRESS, config.getDiscoveryAddress());
+        proxyArgs.put(ProxyArgs.Placeholder.ZIPKIN_ADDRESS, config.getZipkinAddress());
+        proxyArgs.put(ProxyArgs.Placeholder.STATSD_UDP_ADDRESS, config.getStatsdUdpAddress());
+        proxyArgs.put(ProxyArgs.Placeholder.CONTROL_PLANE_AUTH_POLICY, settings.getControlPlaneAuthPolicy().toString());
+        settings.getProxyTuning().putTo(proxyArgs);
+        return new SidecarTemplate(settings, proxyArgs);
+    }
+
+    IstioSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Add the Istio sidecar to the given pod spec. Containers, init containers and volumes which are already there,
+     * e.g. because the enricher ran before or a fragment contains them, are left untouched, and those of the
+     * application are kept.
+     *
+     * @return - the number of containers and init containers added
+     */
+    int inject(PodSpecBuilder podSpecBuilder) {
+        return inject(podSpecBuilder, PodSpecIndex.of(podSpecBuilder));
+    }
+
+    /**
+     * @param index - the index of the given pod spec, before the sidecar is added
+     * @see #inject(PodSpecBuilder)
+     */
+    int inject(PodSpecBuilder podSpecBuilder, PodSpecIndex index) {
+        int added = 0;
+
+        // Add Istio Proxy, first when the application waits for it as the containers are started in order
+        if (!index.hasContainer(proxyContainer.getName())) {
+            final SidecarSizing sizing = settings.getSidecarSizing();
+            final Container container = sizing.isAuto()
+                    ? proxyContainer(sizing.forContainers(podSpecBuilder.buildContainers()))
+                    : proxyContainer;
+            if (settings.getSidecarStartup().isProxyFirst()) {
+                podSpecBuilder.addToContainers(0, container);
+            } else {
+                podSpecBuilder.addToContainers(container);
+            }
+            added++;
+        }
+
+        // Specify Istio volumes
+        if (!index.hasVolume(envoyVolume.getName())) {
+            podSpecBuilder.addToVolumes(envoyVolume);
+        }
+        if (!index.hasVolume(CERTS_VOLUME)) {
+            podSpecBuilder.addToVolumes(certsVolume(getServiceAccountName(podSpecBuilder)));
+        }
+
+        // Add Istio Init container and Core Dump if enabled, after the ones of the application
+        for (Container initContainer : initContainers) {
+            if (!index.hasInitContainer(initContainer.getName())) {
+                podSpecBuilder.addToInitContainers(initContainer);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * @param appContainerName - the application container of the DeploymentConfig, see {@link #findAppContainer}
+     * @return - the triggers of the sidecar images, followed by the one of the application image if there is an
+     * application container
+     */
+    List<DeploymentTriggerPolicy> getTriggers(String appContainerName) {
+        if (appContainerName == null) {
+            return triggers;
+        }
+        final List<DeploymentTriggerPolicy> all = new ArrayList<>(triggers.size() + 1);
+        all.addAll(triggers);
+        all.add(appTrigger(appContainerName));
+        return all;
+    }
+
+    /**
+     * @return - the name of the container running the application image stream, else of the first container which
+     * isn't part of the sidecar, or <code>null</code> if there is none
+     */
+    String findAppContainer(PodSpecIndex index) {
+        return index.findAppContainer(settings.getServiceCluster(), Collections.singleton(proxyContainer.getName()));
+    }
+
+    List<ImageStream> getImageStreams() {
+        return imageStreams;
+    }
+
+    /**
+     * @return - the annotations to add to the injected pods, besides the sidecar status
+     */
+    Map<String, String> getPodAnnotations() {
+        return settings.getTrafficInterception().getAnnotations();
+    }
+
+    private Container proxyContainer(SidecarSizing sizing) {
+        return new ContainerBuilder()
+                .withName(settings.getProxyName())
+                .withResources(sizing.getResources())
+                .withTerminationMessagePath("/dev/termination-log")
+                .withImage(settings.getProxyImageStreamName())
+                .withImagePullPolicy(settings.getImagePullPolicy())
+                .withArgs(proxyArgs)
+                .withEnv(proxyEnvVars())
+                .withSecurityContext(new SecurityContextBuilder()
+                        .withRunAsUser(1337l)
+                        .withPrivileged(true)
+                        .withReadOnlyRootFilesystem(false)
+                        .build())
+                .withVolumeMounts(istioVolumeMounts())
+                .withReadinessProbe(settings.getSidecarStartup().getReadinessProbe())
+                .withLifecycle(settings.getSidecarStartup().getLifecycle())
+                .build();
+    }
+
+    private List<DeploymentTriggerPolicy> populateTriggers() {
+        final String istioVersion = settings.getIstioVersion();
+        final TriggerPolicy policy = settings.getTriggerPolicy();
+        List<DeploymentTriggerPolicy> triggers = new ArrayList<>();
+        DeploymentTriggerPolicyBuilder trigger = new DeploymentTriggerPolicyBuilder();
+
+        // Add Istio Init Image
+        trigger.withType("ImageChange")
+               .withNewImageChangeParams()
+                 .withAutomatic(policy.isInitAutomatic())
+                 .withNewFrom()
+                   .withKind("ImageStreamTag")
+                   .withName(settings.getInitImageStreamName() + ":" + istioVersion)
+                 .endFrom()
+                 .withContainerNames(settings.getInitName())
+               .endImageChangeParams()
+               .build();
+        triggers.add(trigger.build());
+
+        // Add Istio Proxy Image
+        trigger.withType("ImageChange")
+               .withNewImageChangeParams()
+                 .withAutomatic(policy.isProxyAutomatic())
+                 .withNewFrom()
+                   .withKind("ImageStreamTag")
+                   .withName(settings.istioImageName(settings.getProxyImageStreamName()) + ":" + policy.proxyTag(istioVersion))
+                 .endFrom()
+                 .withContainerNames(settings.getProxyName())
+               .endImageChangeParams()
+               .build();
+        triggers.add(trigger.build());
+
+        // Add Core Dump image if enableCoreDump
+        if (settings.isCoreDump()) {
+            trigger.withType("ImageChange")
+                   .withNewImageChangeParams()
+                     .withAutomatic(policy.isInitAutomatic())
+                     .withNewFrom()
+                       .withKind("ImageStreamTag")
+                       .withName(settings.getCoreDumpImageStreamName() + ":" + settings.getAlpineVersion())
+                      .endFrom()
+                    .withContainerNames(settings.getCoreDumpName())
+                   .endImageChangeParams()
+                   .build();
+            triggers.add(trigger.build());
+        }
+
+        return triggers;
+    }
+
+    private DeploymentTriggerPolicy appTrigger(String appContainerName) {
+        // Add Trigger to include the Microservice app
+        return new DeploymentTriggerPolicyBuilder()
+               .withType("ImageChange")
+               .withNewImageChangeParams()
+                 .withAutomatic(true)
+                 .withNewFrom()
+                    .withKind("ImageStreamTag")
+                    .withName(settings.getServiceCluster() + ":latest")
+                  .endFrom()
+                  .withContainerNames(appContainerName)
+               .endImageChangeParams()
+               .build();
+    }
+
+    private List<Container> populateInitContainers() {
+        List<Container> initcontainerList = new ArrayList<>();
+
+        // Add Istio container which setup IPTABLES
+        initcontainerList.add(istioInitContainer());
+
+        if (settings.isCoreDump()) {
+            initcontainerList.add(coreDumpInitContainer());
+        }
+        return initcontainerList;
+    }
+
+    /*
+     *
+       kind: ImageStream
+       metadata:
+         generation: 1
+         name: proxy_debug
+         namespace: demo
+       spec:
+         tags:
+         - from:
+             kind: DockerImage
+             name: docker.io/istio/proxy_debug:0.2.12
+           generation: 1
+           name: latest
+           referencePolicy:
+             type: Source
+     */
+    /**
+     * @return - the ImageStreams of the sidecar images, which only depend on the settings
+     */
+    static List<ImageStream> istioImageStream(IstioSettings settings) {
+        final String istioVersion = settings.getIstioVersion();
+        List<ImageStream> imageStreams = new ArrayList<>();
+        ImageStreamBuilder imageStreamBuilder = new ImageStreamBuilder();
+        imageStreamBuilder
+                .withNewMetadata()
+                  .withName(settings.getInitImageStreamName())
+                .endMetadata()
+
+                .withNewSpec()
+                  .addNewTag()
+                  .withNewFrom()
+                    .withKind("DockerImage")
+                    .withName(settings.getInitDockerImageName() + ":" + istioVersion)
+                  .endFrom()
+                  .withName(istioVersion)
+                  .endTag()
+                .endSpec()
+                .build();
+        imageStreams.add(imageStreamBuilder.build());
+
+        if (settings.isCoreDump()) {
+            imageStreamBuilder = new ImageStreamBuilder();
+            imageStreamBuilder
+                 .withNewMetadata()
+                   .withName(settings.getCoreDumpImageStreamName())
+                 .endMetadata()
+
+                 .withNewSpec()
+                   .addNewTag()
+                   .withNewFrom()
+                     .withKind("DockerImage")
+                     .withName(settings.getCoreDumpDockerImageName() + ":" + settings.getAlpineVersion())
+                   .endFrom()
+                   .withName(settings.getAlpineVersion())
+                   .endTag()
+                 .endSpec()
+                 .build();
+            imageStreams.add(imageStreamBuilder.build());
+        }
+
+        imageStreamBuilder = new ImageStreamBuilder();
+        imageStreamBuilder
+                .withNewMetadata()
+                  .withName(settings.istioImageName(settings.getProxyImageStreamName()))
+                .endMetadata()
+
+                .withNewSpec()
+                  .addNewTag()
+                  .withNewFrom()
+                    .withKind("DockerImage")
+                    .withName(settings.istioImageName(settings.getProxyDockerImageName()) + ":" + istioVersion)
+                  .endFrom()
+                  .withName(istioVersion)
+                  .endTag()
+                .endSpec()
+                .build();
+
+        // the tag followed by the proxy trigger when the rollouts are coalesced, starting at the current release
+        final String coalescingTag = settings.getTriggerPolicy().getCoalescingTag();
+        if (coalescingTag != null && !coalescingTag.equals(istioVersion)) {
+            imageStreamBuilder
+                    .editSpec()
+                      .addNewTag()
+                      .withNewFrom()
+                        .withKind("ImageStreamTag")
+                        .withName(settings.istioImageName(settings.getProxyImageStreamName()) + ":" + istioVersion)
+                      .endFrom()
+                      .withName(coalescingTag)
+                      .endTag()
+                    .endSpec();
+        }
+        imageStreams.add(imageStreamBuilder.build());
+
+        return imageStreams;
+    }
+
+    private static String getServiceAccountName(PodSpecBuilder podSpecBuilder) {
+        if (Strings.isNotBlank(podSpecBuilder.getServiceAccountName())) {
+            return podSpecBuilder.getServiceAccountName();
+        } else if (Strings.isNotBlank(podSpecBuilder.getServiceAccount())) {
+            return podSpecBuilder.getServiceAccount();
+        }
+
+        return "default";
+    }
+
+    private Container istioInitContainer() {
+        /*
+          .put("name", "istio-init")
+          .put("image", getConfig(Config.initImageStreamName))
+          .put("imagePullPolicy", "IfNotPresent")
+          .put("resources", new JsonObject())
+          .put("terminationMessagePath", "/dev/termination-log")
+          .put("terminationMessagePolicy", "File")
+          .put("args", new JsonArray()
+              .add("-p")
+              .add("15001")
+              .add("-u")
+              .add("1337"))
+          .put("securityContext",
+              new JsonObject()
+                  .put("capabilities",
+                      new JsonObject()
+                          .put("add", new JsonArray().add("NET_ADMIN")))
+                  .put("privileged",true));
+         */
+
+        return new ContainerBuilder()
+                .withName(settings.getInitName())
+                .withImage(settings.getInitImageStreamName())
+                .withImagePullPolicy("IfNotPresent")
+                .withTerminationMessagePath("/dev/termination-log")
+                .withTerminationMessagePolicy("File")
+                .withArgs(settings.getTrafficInterception().getInitArgs())
+                .withSecurityContext(new SecurityContextBuilder()
+                        .withPrivileged(true)
+                        .withCapabilities(new CapabilitiesBuilder()
+                                .addToAdd("NET_ADMIN")
+                                .build())
+                        .build())
+                .build();
+    }
+
+    private Container coreDumpInitContainer() {
+        /* Enable Core Dump
+         *  args:
+         *   - '-c'
+         *   - >-
+         *     sysctl -w kernel.core_pattern=/etc/istio/proxy/core.%e.%p.%t &&
+         *     ulimit -c unlimited
+         * command:
+         *   - /bin/sh
+         * image: alpine
+         * imagePullPolicy: IfNotPresent
+         * name: enable-core-dump
+         * resources: {}
+         * securityContext:
+         *   privileged: true
+         * terminationMessagePath: /dev/termination-log
+         * terminationMessagePolicy: File
+         */
+        return new ContainerBuilder()
+                .withName(settings.getCoreDumpName())
+                .withImage(settings.getCoreDumpImageStreamName())
+                .withImagePullPolicy("IfNotPresent")
+                .withCommand("/bin/sh")
+                .withArgs("-c", "sysctl -w kernel.core_pattern=/etc/istio/proxy/core.%e.%p.%t && ulimit -c unlimited")
+                .withTerminationMessagePath("/dev/termination-log")
+                .withTerminationMessagePolicy("File")
+                .withSecurityContext(new SecurityContextBuilder()
+                        .withPrivileged(true)
+                        .build())
+                .build();
+    }
+
+    /**
+     * Generate the volumes to be mounted
+     *
+     * @return - list of {@link VolumeMount}
+     */
+    private static List<VolumeMount> istioVolumeMounts() {
+        List<VolumeMount> volumeMounts = new ArrayList<>();
+
+        VolumeMountBuilder istioProxyVolume = new VolumeMountBuilder();
+        istioProxyVolume
+                .withMountPath("/etc/istio/proxy")
+                .withName("istio-envoy")
+                .build();
+
+        VolumeMountBuilder istioCertsVolume = new VolumeMountBuilder();
+        istioCertsVolume
+                .withMountPath("/etc/certs")
+                .withName("istio-certs")
+                .withReadOnly(true)
+                .build();
+
+        volumeMounts.add(istioProxyVolume.build());
+        volumeMounts.add(istioCertsVolume.build());
+        return volumeMounts;
+    }
+
+    /**
+     * Generate the <code>istio-envoy</code> volume, shared by all pods. Being in memory, it counts against the memory of
+     * the pod, hence the optional size limit.
+     *
+     * @return - the {@link Volume}
+     */
+    private Volume envoyVolume() {
+        return new VolumeBuilder()
+                .withEmptyDir(new EmptyDirVolumeSourceBuilder()
+                        .withMedium("Memory")
+                        .withSizeLimit(settings.getSidecarStartup().getEnvoyVolumeSizeLimit())
+                        .build())
+                .withName("istio-envoy")
+                .build();
+    }
+
+    /**
+     * Generate the <code>istio-certs</code> volume of a pod
+     *
+     * @return - the {@link Volume}
+     */
+    private static Volume certsVolume(String serviceAccountName) {
+        return new VolumeBuilder()
+                .withName(CERTS_VOLUME)
+                .withSecret(new SecretVolumeSourceBuilder()
+                        .withSecretName("istio." + serviceAccountName)
+                        .withDefaultMode(420)
+                        .build())
+                .build();
+    }
+
+    /**
+     * The method to return list of environment variables that will be needed for Istio proxy
+     *
+     * @return - list of {@link EnvVar}
+     */
+    private static List<EnvVar> proxyEnvVars() {
+        List<EnvVar> envVars = new ArrayList<>();
+
+        //POD_NAME
+        EnvVarSource podNameVarSource = new EnvVarSource();
+        podNameVarSource.setFieldRef(new ObjectFieldSelector(null, "metadata.name"));
+        envVars.add(new EnvVar("POD_NAME", null, podNameVarSource));
+
+        //POD_NAMESPACE
+        EnvVarSource podNamespaceVarSource = new EnvVarSource();
+        podNamespaceVarSource.setFieldRef(new ObjectFieldSelector(null, "metadata.namespace"));
+        envVars.add(new EnvVar("POD_NAMESPACE", null, podNamespaceVarSource));
+
+        //POD_IP
+        EnvVarSource podIpVarSource = new EnvVarSource();
+        podIpVarSource.setFieldRef(new ObjectFieldSelector(null, "status.podIP"));
+        envVars.add(new EnvVar("INSTANCE_IP", null, podIpVarSource));
+
+        return envVars;
+    }
+}
@@ -0,0 +1,242 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesList;
+import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
+import io.fabric8.kubernetes.api.model.KubernetesResource;
+import io.fabric8.openshift.api.model.ImageStream;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.NodeEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.nodes.MappingNode;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.NodeTuple;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.SequenceNode;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+/**
+ * Enriches a multi-document YAML stream one resource at a time: each document is read, run through the
+ * {@link IstioVisitor} on its own and written out before the next one is read, so the memory used doesn't depend on
+ * the number of resources. The items of a <code>List</code> document, such as the <code>openshift.yml</code> fabric8
+ * generates, are read one at a time too and written as documents of their own.
+ * <p>
+ * The stream is read from the SnakeYAML events, as Jackson only reads the first document of a stream, and only one
+ * resource at a time is composed into a node tree, the way SnakeYAML itself composes a whole document. The ImageStreams
+ * met on the way are recorded so that the Istio ones can be added at the end only if missing.
+ *
+ * @author charles moulliard
+ */
+final class StreamingEnricher {
+
+    private static final YAMLMapper MAPPER = new YAMLMapper();
+    private static final Resolver RESOLVER = new Resolver();
+
+    private final Function<HasMetadata, SidecarTemplate> sidecars;
+    private final String sidecarStatus;
+    private final EnricherMetrics metrics;
+    private final Set<String> imageStreamTags;
+
+    /**
+     * @param sidecars - returns the sidecar to inject into the pods of a resource, e.g. per service cluster
+     * @param imageStreamTags - receives the name:tag of the ImageStreams of the stream, may be shared between threads
+     */
+    StreamingEnricher(Function<HasMetadata, SidecarTemplate> sidecars, String sidecarStatus, EnricherMetrics metrics,
+                      Set<String> imageStreamTags) {
+        this.sidecars = sidecars;
+        this.sidecarStatus = sidecarStatus;
+        this.metrics = metrics;
+        this.imageStreamTags = imageStreamTags;
+    }
+
+    /**
+     * @param source - describes the stream in error messages
+     * @return - the number of resources written
+     * @throws IllegalArgumentException if a document isn't a Kubernetes resource
+     */
+    int enrich(Reader reader, Writer writer, String source) throws IOException {
+        final Iterator<Event> events = new Yaml().parse(reader).iterator();
+        final NodeConstructor constructor = new NodeConstructor();
+        int resources = 0;
+        while (events.hasNext()) {
+            if (events.next().is(Event.ID.DocumentStart)) {
+                resources += new Document(events, source).enrich(constructor, writer);
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Write the given resource as a YAML document, starting with its own <code>---</code> marker
+     */
+    static void write(HasMetadata resource, Writer writer) throws IOException {
+        writer.write(MAPPER.writeValueAsString(resource));
+    }
+
+    private HasMetadata enrich(HasMetadata resource) {
+        if (resource instanceof ImageStream) {
+            final ImageStream imageStream = (ImageStream) resource;
+            if (imageStream.getMetadata() != null) {
+                imageStreamTags.addAll(ImageStreamDeduplicator.tags(imageStream.getMetadata().getName(), imageStream.getSpec()));
+            }
+            return resource;
+        }
+
+        final SidecarTemplate sidecar = sidecars.apply(resource);
+        final KubernetesListBuilder builder = new KubernetesListBuilder().withItems(Collections.singletonList(resource));
+        new IstioListEnricher(() -> new IstioVisitor(sidecar, sidecarStatus, metrics), 1, 1).enrich(builder);
+        return builder.buildItems().get(0);
+    }
+
+    /**
+     * The events of a document, composed into nodes one resource at a time. A top level <code>items</code> sequence,
+     * which only the <code>List</code> kinds have, is enriched item by item and the other fields of the list are
+     * dropped, any other document is composed as a whole.
+     */
+    private final class Document {
+        private final Iterator<Event> events;
+        private final String source;
+        private final Map<String, Node> anchors = new HashMap<>();
+
+        Document(Iterator<Event> events, String source) {
+            this.events = events;
+            this.source = source;
+        }
+
+        /**
+         * @return - the number of resources written
+         */
+        int enrich(NodeConstructor constructor, Writer writer) throws IOException {
+            final Event root = events.next();
+            if (!root.is(Event.ID.MappingStart)) {
+                final Node node = compose(root);
+                if (node instanceof ScalarNode && Tag.NULL.equals(node.getTag())) {
+                    // empty document
+                    return 0;
+                }
+                throw new IllegalArgumentException("Unsupported document in " + source + ": " + node.getNodeId());
+            }
+
+            final List<NodeTuple> fields = new ArrayList<>();
+            int items = -1;
+            for (Event event = events.next(); !event.is(Event.ID.MappingEnd); event = events.next()) {
+                final Node key = compose(event);
+                final Event value = events.next();
+                if (value.is(Event.ID.SequenceStart) && key instanceof ScalarNode && "items".equals(((ScalarNode) key).getValue())) {
+                    items = Math.max(items, 0);
+                    for (Event item = events.next(); !item.is(Event.ID.SequenceEnd); item = events.next()) {
+                        write(StreamingEnricher.this.enrich(resource(constructor.construct(compose(item)))), writer);
+                        items++;
+                    }
+                } else {
+                    fields.add(new NodeTuple(key, compose(value)));
+                }
+            }
+            if (items >= 0) {
+                return items;
+            }
+
+            final KubernetesResource<?> resource = MAPPER.convertValue(
+                    constructor.construct(new MappingNode(Tag.MAP, fields, null)), KubernetesResource.class);
+            if (resource instanceof KubernetesList) {
+                // a list without items
+                return 0;
+            }
+            write(StreamingEnricher.this.enrich(resource(resource)), writer);
+            return 1;
+        }
+
+        private HasMetadata resource(Object value) {
+            return resource(MAPPER.convertValue(value, KubernetesResource.class));
+        }
+
+        private HasMetadata resource(KubernetesResource<?> resource) {
+            if (!(resource instanceof HasMetadata)) {
+                throw new IllegalArgumentException("Unsupported document in " + source + ": "
+                        + (resource != null ? resource.getClass().getSimpleName() : "null"));
+            }
+            return (HasMetadata) resource;
+        }
+
+        /**
+         * Compose the node starting with the given event, resolving its implicit tag like the SnakeYAML composer does
+         */
+        private Node compose(Event event) {
+            if (event instanceof AliasEvent) {
+                final Node node = anchors.get(((AliasEvent) event).getAnchor());
+                if (node == null) {
+                    throw new IllegalArgumentException("Undefined YAML alias " + ((AliasEvent) event).getAnchor() + " in " + source);
+                }
+                return node;
+            }
+
+            final Node node;
+            if (event instanceof ScalarEvent) {
+                final ScalarEvent scalar = (ScalarEvent) event;
+                final boolean resolved = isImplicit(scalar.getTag());
+                final Tag tag = resolved
+                        ? RESOLVER.resolve(NodeId.scalar, scalar.getValue(), scalar.getImplicit().canOmitTagInPlainScalar())
+                        : new Tag(scalar.getTag());
+                node = new ScalarNode(tag, resolved, scalar.getValue(), scalar.getStartMark(), scalar.getEndMark(), scalar.getStyle());
+            } else if (event.is(Event.ID.SequenceStart)) {
+                final CollectionStartEvent start = (CollectionStartEvent) event;
+                final boolean resolved = isImplicit(start.getTag());
+                final List<Node> values = new ArrayList<>();
+                for (Event value = events.next(); !value.is(Event.ID.SequenceEnd); value = events.next()) {
+                    values.add(compose(value));
+                }
+                node = new SequenceNode(resolved ? RESOLVER.resolve(NodeId.sequence, null, start.getImplicit()) : new Tag(start.getTag()),
+                        resolved, values, start.getStartMark(), start.getEndMark(), start.getFlowStyle());
+            } else if (event.is(Event.ID.MappingStart)) {
+                final CollectionStartEvent start = (CollectionStartEvent) event;
+                final boolean resolved = isImplicit(start.getTag());
+                final List<NodeTuple> values = new ArrayList<>();
+                for (Event key = events.next(); !key.is(Event.ID.MappingEnd); key = events.next()) {
+                    values.add(new NodeTuple(compose(key), compose(events.next())));
+                }
+                node = new MappingNode(resolved ? RESOLVER.resolve(NodeId.mapping, null, start.getImplicit()) : new Tag(start.getTag()),
+                        resolved, values, start.getStartMark(), start.getEndMark(), start.getFlowStyle());
+            } else {
+                throw new IllegalArgumentException("Unexpected YAML event in " + source + ": " + event);
+            }
+
+            final String anchor = ((NodeEvent) event).getAnchor();
+            if (anchor != null) {
+                anchors.put(anchor, node);
+            }
+            return node;
+        }
+
+        private boolean isImplicit(String tag) {
+            return tag == null || "!".equals(tag);
+        }
+    }
+
+    /**
+     * Constructs the Java objects of a single node, as {@link Yaml#loadAll(Reader)} does for a whole document
+     */
+    private static final class NodeConstructor extends Constructor {
+        Object construct(Node node) {
+            return constructDocument(node);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+
+/**
+ * Which traffic the <code>istio-init</code> container redirects to the proxy. By default everything is, the
+ * 'includeOutboundIPRanges', 'excludeOutboundIPRanges', 'includeInboundPorts' and 'excludeInboundPorts' parameters let
+ * selected flows, e.g. to a database, bypass it.
+ * <p>
+ * The values are rendered into the <code>istio-iptables.sh</code> arguments of the init container and recorded as the
+ * <code>traffic.sidecar.istio.io/*</code> pod annotations Istio uses for the same purpose.
+ *
+ * @author charles moulliard
+ */
+final class TrafficInterception {
+
+    static final String ANNOTATION_PREFIX = "traffic.sidecar.istio.io/";
+
+    private static final Pattern IPV4_CIDR = Pattern.compile("(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})/(\\d{1,2})");
+
+    private final Map<String, String> annotations = new LinkedHashMap<>();
+    private final List<String> initArgs = new ArrayList<>(Arrays.asList("-p", "15001", "-u", "1337"));
+
+    private TrafficInterception(Function<Config, String> config) {
+        add(config, Config.includeOutboundIPRanges, "-i", true);
+        add(config, Config.excludeOutboundIPRanges, "-x", true);
+        add(config, Config.includeInboundPorts, "-b", false);
+        add(config, Config.excludeInboundPorts, "-d", false);
+    }
+
+    /**
+     * @return - the traffic selected by 'includeOutboundIPRanges', 'excludeOutboundIPRanges', 'includeInboundPorts' and
+     * 'excludeInboundPorts'
+     * @throws IllegalArgumentException for an entry which is neither * nor an IP range or a port, or * combined with others
+     */
+    static TrafficInterception from(Function<Config, String> config) {
+        return new TrafficInterception(config);
+    }
+
+    /**
+     * @return - the arguments of the <code>istio-init</code> container
+     */
+    List<String> getInitArgs() {
+        return Collections.unmodifiableList(initArgs);
+    }
+
+    /**
+     * @return - the <code>traffic.sidecar.istio.io/*</code> annotations of the injected pods
+     */
+    Map<String, String> getAnnotations() {
+        return Collections.unmodifiableMap(annotations);
+    }
+
+    private void add(Function<Config, String> config, Config key, String flag, boolean ipRanges) {
+        final String value = config.apply(key);
+        if (value == null || value.trim().isEmpty()) {
+            return;
+        }
+
+        final List<String> entries = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            final String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (!"*".equals(trimmed) && !(ipRanges ? isIpRange(trimmed) : isPort(trimmed))) {
+                throw new IllegalArgumentException("Invalid '" + key.name() + "' parameter: '" + trimmed + "' isn't "
+                        + (ipRanges ? "an IP range such as 10.0.0.0/8" : "a port number") + " or *");
+            }
+            entries.add(trimmed);
+        }
+        if (entries.contains("*") && entries.size() > 1) {
+            throw new IllegalArgumentException("Invalid '" + key.name() + "' parameter: * can't be combined with other values");
+        }
+
+        final String normalized = String.join(",", entries);
+        initArgs.add(flag);
+        initArgs.add(normalized);
+        annotations.put(ANNOTATION_PREFIX + key.name(), normalized);
+    }
+
+    private static boolean isIpRange(String value) {
+        final Matcher matcher = IPV4_CIDR.matcher(value);
+        if (matcher.matches()) {
+            for (int i = 1; i <= 4; i++) {
+                if (Integer.parseInt(matcher.group(i)) > 255) {
+                    return false;
+                }
+            }
+            return Integer.parseInt(matcher.group(5)) <= 32;
+        }
+        // IPv6 ranges are left to the iptables of the init container to validate
+        return value.indexOf(':') >= 0 && value.indexOf('/') > 0;
+    }
+
+    private static boolean isPort(String value) {
+        try {
+            final int port = Integer.parseInt(value);
+            return port > 0 && port <= 65535;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
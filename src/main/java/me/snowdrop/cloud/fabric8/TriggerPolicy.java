@@ -0,0 +1,86 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.function.Function;
+
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+
+/**
+ * How the <code>ImageChange</code> triggers of the sidecar images roll the DeploymentConfigs out, as selected by the
+ * 'triggerPolicy' parameter:
+ * <ul>
+ * <li><code>automatic</code>: every sidecar image triggers a rollout when its tag changes</li>
+ * <li><code>manual</code>: the sidecar images are only picked up by the next rollout, started by hand or by the
+ * application image</li>
+ * <li><code>coalesced</code>: the proxy image tagged 'triggerTag' is the only automatic sidecar trigger, so that
+ * retagging the init, core dump and proxy images for an upgrade ends with a single rollout per service, started when
+ * the 'triggerTag' tag moves</li>
+ * </ul>
+ * The trigger of the application image is automatic whatever the policy.
+ *
+ * @author charles moulliard
+ */
+final class TriggerPolicy {
+
+    enum Mode {
+        AUTOMATIC, MANUAL, COALESCED;
+
+        static Mode of(String id) {
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(id.trim())) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown 'triggerPolicy' parameter: " + id
+                    + ", expected one of automatic, manual or coalesced");
+        }
+    }
+
+    private final Mode mode;
+    private final String triggerTag;
+
+    private TriggerPolicy(Mode mode, String triggerTag) {
+        this.mode = mode;
+        this.triggerTag = triggerTag;
+    }
+
+    /**
+     * @return - the policy selected by 'triggerPolicy', following the 'triggerTag' tag when it is coalesced
+     * @throws IllegalArgumentException for an unknown policy, or a coalesced one whose 'triggerTag' isn't a valid tag
+     */
+    static TriggerPolicy from(Function<Config, String> config) {
+        final Mode mode = Mode.of(config.apply(Config.triggerPolicy));
+        final String triggerTag = config.apply(Config.triggerTag).trim();
+        if (mode == Mode.COALESCED && !triggerTag.matches("[A-Za-z0-9_][A-Za-z0-9_.-]{0,127}")) {
+            throw new IllegalArgumentException("Invalid 'triggerTag' parameter: " + triggerTag);
+        }
+        return new TriggerPolicy(mode, triggerTag);
+    }
+
+    /**
+     * @return - whether a change of the proxy image tag rolls the DeploymentConfigs out
+     */
+    boolean isProxyAutomatic() {
+        return mode != Mode.MANUAL;
+    }
+
+    /**
+     * @return - whether a change of the init or core dump image tags rolls the DeploymentConfigs out
+     */
+    boolean isInitAutomatic() {
+        return mode == Mode.AUTOMATIC;
+    }
+
+    /**
+     * @return - the tag of the proxy image stream the proxy trigger follows
+     */
+    String proxyTag(String istioVersion) {
+        return mode == Mode.COALESCED ? triggerTag : istioVersion;
+    }
+
+    /**
+     * @return - the extra tag added to the proxy image stream, pointing to the current release, or <code>null</code>
+     */
+    String getCoalescingTag() {
+        return mode == Mode.COALESCED ? triggerTag : null;
+    }
+}
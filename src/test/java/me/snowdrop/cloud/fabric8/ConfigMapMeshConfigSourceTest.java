@@ -0,0 +1,102 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.Map;
+import java.util.function.Function;
+
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+import me.snowdrop.istio.api.model.v1.mesh.ProxyConfig;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author charles moulliard
+ */
+public class ConfigMapMeshConfigSourceTest {
+
+    private final MockApiServer server = MockApiServer.get();
+    private final EnricherMetrics metrics = new EnricherMetrics();
+
+    @Test
+    public void retriesServerErrors() {
+        server.enqueue("retried", MockApiServer.status(503), MockApiServer.configMap("retried", MockApiServer.MESH_CONFIG));
+
+        final ProxyConfig config = source(MockApiServer.fastApi("retried")).load();
+
+        assertNotNull(config);
+        assertEquals("istio-pilot.istio-system:15007", config.getDiscoveryAddress());
+        assertEquals(2, server.requests("retried"));
+        assertEquals(1, metrics.getCount("configMap.retries"));
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() {
+        server.enqueue("forbidden", MockApiServer.status(403));
+
+        try {
+            source(MockApiServer.fastApi("forbidden")).load();
+            fail("A forbidden ConfigMap should fail");
+        } catch (KubernetesClientException e) {
+            assertEquals(403, e.getCode());
+        }
+        assertEquals(1, server.requests("forbidden"));
+    }
+
+    @Test
+    public void boundsHungServerByRequestTimeout() {
+        server.enqueue("hung", MockApiServer.hang());
+        final Map<Config, String> values = MockApiServer.fastApi("hung");
+        final long budget = ApiSettings.from(MockApiServer.config(values)).getBudgetMillis();
+
+        final long start = System.currentTimeMillis();
+        try {
+            source(values).load();
+            fail("A hung API server should fail");
+        } catch (KubernetesClientException e) {
+            // expected
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("Took " + elapsed + "ms, more than the " + budget + "ms budget", elapsed < budget + 1000);
+        assertEquals(2, server.requests("hung"));
+    }
+
+    @Test
+    public void rejectsOversizedResponseByContentLength() {
+        rejectsOversizedResponse("oversized", false);
+    }
+
+    @Test
+    public void rejectsOversizedChunkedResponseWhileReading() {
+        rejectsOversizedResponse("oversized-chunked", true);
+    }
+
+    private void rejectsOversizedResponse(String configMapName, boolean chunked) {
+        final StringBuilder mesh = new StringBuilder(MockApiServer.MESH_CONFIG);
+        while (mesh.length() <= 4096) {
+            mesh.append("# padding\n");
+        }
+        server.enqueue(configMapName, MockApiServer.configMap(configMapName, mesh.toString(), chunked));
+        final Map<Config, String> values = MockApiServer.fastApi(configMapName);
+        values.put(Config.meshConfigMaxSize, "4096");
+
+        try {
+            source(values).load();
+            fail("An oversized ConfigMap should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("meshConfigMaxSize"));
+        }
+        assertEquals(1, server.requests(configMapName));
+        assertEquals(0, metrics.getCount("meshConfig.bytesParsed"));
+    }
+
+    private ConfigMapMeshConfigSource source(Map<Config, String> values) {
+        final Function<Config, String> config = MockApiServer.config(values);
+        return new ConfigMapMeshConfigSource(config.apply(Config.istioNamespace), config.apply(Config.istioConfigMapName),
+                null, false, new MeshConfigReader(false, metrics), ApiSettings.from(config), metrics, MockApiServer.log());
+    }
+}
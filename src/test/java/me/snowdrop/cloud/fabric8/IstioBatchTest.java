@@ -0,0 +1,91 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author charles moulliard
+ */
+public class IstioBatchTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void serviceClusterOfEachResource() throws IOException {
+        final File input = write("openshift.yml", deploymentConfig("shop-v1", "shop") + "---\n" + deploymentConfig("cart", null));
+        final File output = new File(folder.getRoot(), "enriched.yml");
+
+        assertEquals(0, IstioBatch.run(args(input, output), MockApiServer.log()));
+
+        final String enriched = new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+        assertTrue(enriched, enriched.contains("- \"--serviceCluster\"\n        - \"shop\""));
+        assertTrue(enriched, enriched.contains("- \"--serviceCluster\"\n        - \"cart\""));
+    }
+
+    @Test
+    public void listItemsWrittenAsDocuments() throws IOException {
+        final File input = write("list.yml", "apiVersion: v1\nkind: List\nitems:\n"
+                + indent(deploymentConfig("shop", null)) + indent(deploymentConfig("cart", null)));
+        final File output = new File(folder.getRoot(), "enriched.yml");
+
+        assertEquals(0, IstioBatch.run(args(input, output), MockApiServer.log()));
+
+        final String enriched = new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+        assertFalse(enriched, enriched.contains("kind: \"List\""));
+        assertEquals(2, enriched.split("kind: \"DeploymentConfig\"", -1).length - 1);
+        assertEquals(2, enriched.split("name: \"istio-proxy\"", -1).length - 1);
+    }
+
+    @Test
+    public void failedFileExitsWithOne() throws IOException {
+        final File input = write("broken.yml", "kind: Unknown\n");
+
+        assertEquals(1, IstioBatch.run(args(input, new File(folder.getRoot(), "out.yml")), MockApiServer.log()));
+    }
+
+    @Test
+    public void invalidCommandLineExitsWithTwo() {
+        assertEquals(2, IstioBatch.run(new String[]{"--unknownParameter=1", "in", "out"}, MockApiServer.log()));
+    }
+
+    private String[] args(File input, File output) {
+        return new String[]{"--meshConfigSources=inline", "--meshConfig=" + MockApiServer.MESH_CONFIG,
+                input.getPath(), output.getPath()};
+    }
+
+    private File write(String name, String content) throws IOException {
+        final File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String indent(String resource) {
+        return "- " + resource.replace("\n", "\n  ").trim() + "\n";
+    }
+
+    private static String deploymentConfig(String name, String app) {
+        return "apiVersion: v1\n"
+                + "kind: DeploymentConfig\n"
+                + "metadata:\n"
+                + "  name: " + name + "\n"
+                + (app != null ? "  labels:\n    app: " + app + "\n" : "")
+                + "spec:\n"
+                + "  replicas: 1\n"
+                + "  template:\n"
+                + "    spec:\n"
+                + "      containers:\n"
+                + "      - name: " + name + "\n"
+                + "        image: " + name + ":latest\n";
+    }
+}
@@ -0,0 +1,79 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.maven.core.config.ProcessorConfig;
+import io.fabric8.maven.enricher.api.EnricherContext;
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author charles moulliard
+ */
+public class IstioEnricherTest {
+
+    private final MockApiServer server = MockApiServer.get();
+
+    @Test
+    public void hungApiServerFailsTheBuildWithinTheDeadline() {
+        server.enqueue("enricher-hung", MockApiServer.hang());
+        final Map<Config, String> values = MockApiServer.fastApi("enricher-hung");
+        final long deadline = MeshConfigSourceChain.from(MockApiServer.config(values), null, EnricherMetrics.DISABLED,
+                MockApiServer.log()).getTimeoutSeconds() * 1000;
+
+        final IstioEnricher enricher = new IstioEnricher(context(values));
+        final KubernetesListBuilder builder = new KubernetesListBuilder()
+                .addNewDeploymentConfigItem()
+                    .withNewMetadata().withName("app").endMetadata()
+                    .withNewSpec()
+                        .withNewTemplate()
+                            .withNewSpec()
+                                .addNewContainer().withName("app").withImage("app:latest").endContainer()
+                            .endSpec()
+                        .endTemplate()
+                    .endSpec()
+                .endDeploymentConfigItem();
+
+        final long start = System.currentTimeMillis();
+        try {
+            enricher.addMissingResources(builder);
+            fail("A hung API server should fail the enrichment");
+        } catch (KubernetesClientException e) {
+            // expected
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("Took " + elapsed + "ms, more than the " + deadline + "ms deadline", elapsed < deadline);
+        assertEquals(2, server.requests("enricher-hung"));
+    }
+
+    private static EnricherContext context(Map<Config, String> values) {
+        final Model model = new Model();
+        model.setGroupId("me.snowdrop");
+        model.setArtifactId("test");
+        model.setVersion("1.0");
+
+        final TreeMap<String, String> enricherConfig = new TreeMap<>();
+        for (Map.Entry<Config, String> value : values.entrySet()) {
+            enricherConfig.put(value.getKey().name(), value.getValue());
+        }
+        // ProcessorConfig only accepts raw TreeMap values
+        @SuppressWarnings("rawtypes")
+        final Map<String, TreeMap> processorConfig = new TreeMap<>();
+        processorConfig.put("fmp-istio-enricher", enricherConfig);
+        return new EnricherContext.Builder()
+                .project(new MavenProject(model))
+                .config(new ProcessorConfig(null, null, processorConfig))
+                .log(MockApiServer.log())
+                .build();
+    }
+}
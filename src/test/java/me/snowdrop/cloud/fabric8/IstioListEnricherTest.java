@@ -0,0 +1,92 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesList;
+import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author charles moulliard
+ */
+public class IstioListEnricherTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final SidecarTemplate sidecar = SidecarTemplate.from(
+            IstioSettings.from(MockApiServer.config(Collections.emptyMap()), "test"),
+            new MeshConfigReader(true, EnricherMetrics.DISABLED).readProxyConfig(MockApiServer.MESH_CONFIG, "test"));
+
+    @Test
+    public void parallelMatchesSequential() throws JsonProcessingException {
+        final KubernetesList input = list(101);
+
+        final KubernetesList sequential = enrich(input, 1, 64);
+        final KubernetesList parallel = enrich(input, 4, 3);
+
+        assertEquals(MAPPER.writeValueAsString(sequential), MAPPER.writeValueAsString(parallel));
+        assertEquals(names(input), names(parallel));
+        for (HasMetadata item : parallel.getItems()) {
+            final List<Container> containers = item instanceof Pod
+                    ? ((Pod) item).getSpec().getContainers()
+                    : ((DeploymentConfig) item).getSpec().getTemplate().getSpec().getContainers();
+            assertEquals(item.getMetadata().getName(), 2, containers.size());
+        }
+    }
+
+    private KubernetesList enrich(KubernetesList input, int parallelism, int chunkSize) {
+        final KubernetesListBuilder builder = new KubernetesListBuilder(input);
+        new IstioListEnricher(() -> new IstioVisitor(sidecar, "status", EnricherMetrics.DISABLED), parallelism, chunkSize)
+                .enrich(builder);
+        return builder.build();
+    }
+
+    private static List<String> names(KubernetesList list) {
+        final List<String> names = new ArrayList<>();
+        for (HasMetadata item : list.getItems()) {
+            names.add(item.getKind() + "/" + item.getMetadata().getName());
+        }
+        return names;
+    }
+
+    /**
+     * @return - DeploymentConfigs and Pods
+     */
+    private static KubernetesList list(int size) {
+        final KubernetesListBuilder builder = new KubernetesListBuilder();
+        for (int i = 0; i < size; i++) {
+            final String name = "app-" + i;
+            if (i % 2 == 0) {
+                builder.addNewDeploymentConfigItem()
+                        .withNewMetadata().withName(name).endMetadata()
+                        .withNewSpec()
+                            .withNewTemplate()
+                                .withNewMetadata().addToLabels("app", name).endMetadata()
+                                .withNewSpec()
+                                    .addNewContainer().withName(name).withImage(name + ":latest").endContainer()
+                                .endSpec()
+                            .endTemplate()
+                        .endSpec()
+                        .endDeploymentConfigItem();
+            } else {
+                builder.addNewPodItem()
+                        .withNewMetadata().withName(name).endMetadata()
+                        .withNewSpec()
+                            .addNewContainer().withName(name).withImage(name + ":latest").endContainer()
+                        .endSpec()
+                        .endPodItem();
+            }
+        }
+        return builder.build();
+    }
+}
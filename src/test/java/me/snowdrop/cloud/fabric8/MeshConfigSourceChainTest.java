@@ -0,0 +1,75 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author charles moulliard
+ */
+public class MeshConfigSourceChainTest {
+
+    private final MockApiServer server = MockApiServer.get();
+
+    @Test
+    public void defaultTimeoutCoversConfigMapRetries() {
+        final Map<Config, String> values = new HashMap<>();
+        values.put(Config.meshConfigSources, "configmap");
+
+        final long budget = ApiSettings.from(MockApiServer.config(values)).getBudgetMillis();
+        final MeshConfigSourceChain chain = chain(values);
+
+        assertTrue("The " + chain.getTimeoutSeconds() + "s timeout doesn't cover the " + budget + "ms of the retries",
+                chain.getTimeoutSeconds() * 1000 >= budget);
+    }
+
+    @Test
+    public void defaultTimeoutOfLocalSources() {
+        final Map<Config, String> values = new HashMap<>();
+        values.put(Config.meshConfigSources, "file,inline");
+
+        assertEquals(2 * MeshConfigSourceChain.LOCAL_SOURCE_TIMEOUT_SECONDS, chain(values).getTimeoutSeconds());
+    }
+
+    @Test
+    public void explicitTimeouts() {
+        final Map<Config, String> values = new HashMap<>();
+        values.put(Config.meshConfigSources, "file,configmap:7");
+        values.put(Config.meshSourceTimeout, "3");
+
+        assertEquals(10, chain(values).getTimeoutSeconds());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidSourceTimeout() {
+        final Map<Config, String> values = new HashMap<>();
+        values.put(Config.meshSourceTimeout, "0");
+
+        chain(values);
+    }
+
+    @Test
+    public void hungConfigMapFailsWithItsOwnError() {
+        server.enqueue("chain-hung", MockApiServer.hang());
+        final Map<Config, String> values = MockApiServer.fastApi("chain-hung");
+
+        try {
+            chain(values).load();
+            fail("A hung API server should fail");
+        } catch (KubernetesClientException e) {
+            // the source gave up after its retries rather than being abandoned by the chain
+        }
+        assertEquals(2, server.requests("chain-hung"));
+    }
+
+    private static MeshConfigSourceChain chain(Map<Config, String> values) {
+        return MeshConfigSourceChain.from(MockApiServer.config(values), null, EnricherMetrics.DISABLED, MockApiServer.log());
+    }
+}
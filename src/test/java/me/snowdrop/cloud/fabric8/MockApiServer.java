@@ -0,0 +1,197 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.fabric8.maven.docker.util.AnsiLogger;
+import io.fabric8.maven.docker.util.Logger;
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * An in-process Kubernetes API server answering the ConfigMap requests of the tests with queued responses. The
+ * Kubernetes client is pointed at it through the <code>kubernetes.master</code> system property, so a single instance
+ * is shared by the tests of the JVM and each test uses its own ConfigMap name.
+ *
+ * @author charles moulliard
+ */
+final class MockApiServer {
+
+    static final String NAMESPACE = "istio-system";
+
+    /**
+     * A mesh configuration with the fields read by the enricher
+     */
+    static final String MESH_CONFIG = "defaultConfig:\n"
+            + "  configPath: \"/etc/istio/proxy\"\n"
+            + "  binaryPath: \"/usr/local/bin/envoy\"\n"
+            + "  serviceCluster: istio-proxy\n"
+            + "  drainDuration: 45s\n"
+            + "  parentShutdownDuration: 1m0s\n"
+            + "  discoveryRefreshDelay: 1s\n"
+            + "  proxyAdminPort: 15000\n"
+            + "  controlPlaneAuthPolicy: NONE\n"
+            + "  discoveryAddress: istio-pilot.istio-system:15007\n"
+            + "  connectTimeout: 10s\n";
+
+    private static final String CONFIG_MAPS = "/api/v1/namespaces/" + NAMESPACE + "/configmaps/";
+    private static final long HANG_MILLIS = 30_000;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final MockApiServer INSTANCE = new MockApiServer();
+
+    private final Map<String, Deque<Response>> responses = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    /**
+     * Writes the response to a request
+     */
+    interface Response {
+        void respond(HttpExchange exchange) throws IOException;
+    }
+
+    private MockApiServer() {
+        try {
+            final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable, "mock-api-server");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            server.createContext("/", this::handle);
+            server.start();
+
+            System.setProperty("kubernetes.master", "http://127.0.0.1:" + server.getAddress().getPort());
+            System.setProperty("kubernetes.auth.tryKubeConfig", "false");
+            System.setProperty("kubernetes.auth.tryServiceAccount", "false");
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't start the mock API server", e);
+        }
+    }
+
+    static MockApiServer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queue the responses to the requests for the given ConfigMap, the last one answering all the subsequent requests
+     */
+    void enqueue(String configMapName, Response... queued) {
+        responses.put(configMapName, new ConcurrentLinkedDeque<>(Arrays.asList(queued)));
+    }
+
+    /**
+     * @return - the number of requests received for the given ConfigMap
+     */
+    int requests(String configMapName) {
+        final AtomicInteger count = requests.get(configMapName);
+        return count != null ? count.get() : 0;
+    }
+
+    static Response status(int code) {
+        return exchange -> write(exchange, code, "{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"status\":\"Failure\",\"code\":" + code + "}", false);
+    }
+
+    static Response configMap(String name, String mesh) {
+        return configMap(name, mesh, false);
+    }
+
+    /**
+     * @param chunked - whether the response is sent without a Content-Length
+     */
+    static Response configMap(String name, String mesh, boolean chunked) {
+        return exchange -> {
+            final Map<String, Object> metadata = new LinkedHashMap<>();
+            metadata.put("name", name);
+            metadata.put("namespace", NAMESPACE);
+            metadata.put("resourceVersion", "1");
+            final Map<String, Object> map = new LinkedHashMap<>();
+            map.put("apiVersion", "v1");
+            map.put("kind", "ConfigMap");
+            map.put("metadata", metadata);
+            map.put("data", Collections.singletonMap("mesh", mesh));
+            write(exchange, 200, MAPPER.writeValueAsString(map), chunked);
+        };
+    }
+
+    /**
+     * @return - a response which never comes, at least not before the client gave up
+     */
+    static Response hang() {
+        return exchange -> {
+            try {
+                Thread.sleep(HANG_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        };
+    }
+
+    /**
+     * @return - the enricher configuration with the given values, the defaults otherwise
+     */
+    static Function<Config, String> config(Map<Config, String> values) {
+        return key -> values.containsKey(key) ? values.get(key) : key.def();
+    }
+
+    /**
+     * @return - the enricher configuration of a ConfigMap source with short API timeouts: 1s to connect, 1s per request
+     * and a single retry after 100ms
+     */
+    static Map<Config, String> fastApi(String configMapName) {
+        final Map<Config, String> values = new LinkedHashMap<>();
+        values.put(Config.istioNamespace, NAMESPACE);
+        values.put(Config.istioConfigMapName, configMapName);
+        values.put(Config.meshConfigSources, "configmap");
+        values.put(Config.meshCache, "false");
+        values.put(Config.apiConnectTimeout, "1");
+        values.put(Config.apiRequestTimeout, "1");
+        values.put(Config.apiRetries, "1");
+        values.put(Config.apiRetryBackoff, "100");
+        return values;
+    }
+
+    static Logger log() {
+        return new AnsiLogger(new SystemStreamLog(), false, false);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        if (!path.startsWith(CONFIG_MAPS)) {
+            status(404).respond(exchange);
+            return;
+        }
+
+        final String name = path.substring(CONFIG_MAPS.length());
+        requests.computeIfAbsent(name, ignored -> new AtomicInteger()).incrementAndGet();
+        final Deque<Response> queue = responses.get(name);
+        final Response response = queue == null ? null : queue.size() > 1 ? queue.poll() : queue.peek();
+        (response != null ? response : status(404)).respond(exchange);
+    }
+
+    private static void write(HttpExchange exchange, int code, String body, boolean chunked) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        // a length of 0 makes the server use the chunked transfer encoding
+        exchange.sendResponseHeaders(code, chunked ? 0 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package me.snowdrop.cloud.fabric8;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerBuilder;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceRequirements;
+import me.snowdrop.cloud.fabric8.IstioEnricher.Config;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author charles moulliard
+ */
+public class SidecarSizingTest {
+
+    @Test
+    public void autoRequestDoesNotExceedLimit() {
+        final Map<Config, String> values = new HashMap<>();
+        values.put(Config.proxyProfile, "auto");
+        // the limit only covers the first container, the request both of them
+        final Container limited = container("1", "200m");
+        final Container unlimited = container("1", null);
+
+        final ResourceRequirements resources = SidecarSizing.from(MockApiServer.config(values))
+                .forContainers(Arrays.asList(limited, unlimited)).getResources();
+
+        assertEquals("100m", resources.getLimits().get("cpu").getAmount());
+        assertEquals("100m", resources.getRequests().get("cpu").getAmount());
+    }
+
+    @Test
+    public void explicitRequestRaisesProfileLimit() {
+        final Map<Config, String> values = new HashMap<>();
+        values.put(Config.proxyProfile, "tiny");
+        values.put(Config.proxyCpuRequest, "500m");
+
+        final ResourceRequirements resources = SidecarSizing.from(MockApiServer.config(values)).getResources();
+
+        assertEquals("500m", resources.getRequests().get("cpu").getAmount());
+        assertEquals("500m", resources.getLimits().get("cpu").getAmount());
+    }
+
+    @Test
+    public void explicitLimitLowersProfileRequest() {
+        final Map<Config, String> values = new HashMap<>();
+        values.put(Config.proxyProfile, "high-throughput");
+        values.put(Config.proxyMemoryLimit, "128Mi");
+
+        final ResourceRequirements resources = SidecarSizing.from(MockApiServer.config(values)).getResources();
+
+        assertEquals("128Mi", resources.getRequests().get("memory").getAmount());
+        assertEquals("128Mi", resources.getLimits().get("memory").getAmount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsExplicitRequestAboveExplicitLimit() {
+        final Map<Config, String> values = new HashMap<>();
+        values.put(Config.proxyCpuRequest, "500m");
+        values.put(Config.proxyCpuLimit, "100m");
+
+        SidecarSizing.from(MockApiServer.config(values));
+    }
+
+    private static Container container(String cpuRequest, String cpuLimit) {
+        final ResourceRequirements resources = new ResourceRequirements(
+                cpuLimit != null ? Collections.singletonMap("cpu", new Quantity(cpuLimit)) : null,
+                Collections.singletonMap("cpu", new Quantity(cpuRequest)));
+        return new ContainerBuilder().withName("app").withResources(resources).build();
+    }
+}